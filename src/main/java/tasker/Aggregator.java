@@ -0,0 +1,97 @@
+package tasker;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Defines an interface that aggregates results while they are being
+ * produced. Unlike a {@link Collector}, each executing thread accumulates
+ * into its own container as it runs and the containers are only combined
+ * once all threads are finished.
+ * @author schmoller
+ *
+ * @param <T> The element type
+ * @param <A> The per-thread container type
+ * @param <R> The result type
+ */
+public interface Aggregator<T, A, R> {
+	/**
+	 * Creates a new empty container. This is called once per executing thread.
+	 * @return The new container
+	 */
+	A createContainer();
+	
+	/**
+	 * Adds an element to a container. A container is only ever used by one
+	 * thread at a time, so this does not need to be thread-safe.
+	 * @param container The container to add to
+	 * @param element The element to add
+	 */
+	void accumulate(A container, T element);
+	
+	/**
+	 * Called on the executing thread once it has no more elements to add to its
+	 * container. Work done here runs in parallel with the other threads.
+	 * @param container The container that is complete
+	 */
+	default void complete(A container) {
+		// Nothing to do
+	}
+	
+	/**
+	 * Combines the containers into the final result.
+	 * @param containers The containers from each thread.
+	 * @param service The service the task is executing on. This may be used to combine in parallel
+	 * @return A ListenableFuture that returns the combined result
+	 */
+	ListenableFuture<R> combine(List<A> containers, ListeningExecutorService service);
+	
+	/**
+	 * Gets an aggregator that groups all results by key into lists
+	 * @param keyFunction The function that provides the key for each element. Keys may not be null
+	 * @return The aggregator that outputs a map of K to a list of T
+	 */
+	static <T, K> Aggregator<T, ?, Map<K, List<T>>> groupingBy(Function<? super T, ? extends K> keyFunction) {
+		return groupingBy(keyFunction, java.util.stream.Collectors.toList());
+	}
+	
+	/**
+	 * Gets an aggregator that groups all results by key and reduces each group
+	 * using a downstream collector. Each thread reduces into its own partitioned map
+	 * and the partitions are merged in parallel once all threads are finished.
+	 * @param keyFunction The function that provides the key for each element. Keys may not be null
+	 * @param downstream The collector used to reduce each group. Its combiner is used to merge groups between threads
+	 * @return The aggregator that outputs a map of K to D
+	 */
+	static <T, K, D> Aggregator<T, ?, Map<K, D>> groupingBy(Function<? super T, ? extends K> keyFunction, java.util.stream.Collector<? super T, ?, D> downstream) {
+		return new GroupingAggregator<>(keyFunction, downstream, GroupingAggregator.defaultPartitionCount());
+	}
+	
+	/**
+	 * Gets an aggregator that produces a list of all results in sorted order.
+	 * Each thread sorts its own results once it is finished and the sorted runs
+	 * are then merged in parallel.
+	 * @param comparator The comparator that defines the order. Equal elements keep the order they were produced in by each thread
+	 * @return The aggregator that outputs a sorted list of T
+	 */
+	static <T> Aggregator<T, ?, List<T>> sorted(Comparator<? super T> comparator) {
+		return new SortingAggregator<>(comparator);
+	}
+	
+	/**
+	 * Gets an aggregator that produces a sorted list of only the first results
+	 * according to the comparator. Each thread keeps only its own first results
+	 * so the full set of results is never held.
+	 * @param comparator The comparator that defines the order
+	 * @param limit The maximum number of results to keep
+	 * @return The aggregator that outputs a sorted list of at most limit T
+	 */
+	static <T> Aggregator<T, ?, List<T>> top(Comparator<? super T> comparator, int limit) {
+		return new TopAggregator<>(comparator, limit);
+	}
+}
@@ -1,34 +1,51 @@
 package tasker;
 
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 
-class ConsumingStage<In> extends Stage<In> implements ConsumingTask {
+class ConsumingStage<In> extends Stage<In> implements GovernableTask {
 	private final Supplier<? extends Consumer<? super In>> consumerSupplier;
 	private final InstanceOptions supplierOptions;
+	private final boolean closeSharedInstance;
 	
 	public ConsumingStage(Task<?> task, Supplier<? extends Consumer<? super In>> consumerSupplier, InstanceOptions options) {
+		this(task, consumerSupplier, options, true);
+	}
+	
+	/**
+	 * @param closeSharedInstance False if a {@link InstanceOptions#Single} instance belongs to the caller and must not be closed
+	 */
+	public ConsumingStage(Task<?> task, Supplier<? extends Consumer<? super In>> consumerSupplier, InstanceOptions options, boolean closeSharedInstance) {
 		super(task);
 		
 		this.consumerSupplier = consumerSupplier;
 		this.supplierOptions = options;
+		this.closeSharedInstance = closeSharedInstance;
 	}
 
 	public ListenableFuture<Void> execute() {
-		return getTask().executeTask();
+		return getTask().executeTask(this);
 	}
 
 	public void executeAndWait() throws InterruptedException, ExecutionException {
+		getTask().checkStartsTask(this);
 		ListenableFuture<Void> future = execute();
 		
 		future.get();
 	}
 	
+	public GovernableTask withGovernor(Governor governor) {
+		setGovernor(governor);
+		return this;
+	}
+	
 
 	private Consumer<? super In> sharedConsumerInstance;
 	
@@ -40,7 +57,7 @@ class ConsumingStage<In> extends Stage<In> implements ConsumingTask {
 	}
 	
 	@Override
-	protected Runnable createExecutor(Supplier<In> supplier) {
+	protected StageWorker createExecutor(Supplier<In> supplier) {
 		if (supplierOptions == InstanceOptions.Single) {
 			return new StageExecutor<>(this, supplier, sharedConsumerInstance);
 		} else {
@@ -49,8 +66,22 @@ class ConsumingStage<In> extends Stage<In> implements ConsumingTask {
 	}
 	
 	@Override
-	protected void postExecute(ListeningExecutorService service, int threadCount) throws ExecutionException, InterruptedException {
+	protected void cleanup() {
+		if (supplierOptions == InstanceOptions.Single) {
+			try {
+				if (closeSharedInstance) {
+					closeInstance(sharedConsumerInstance);
+				}
+			} finally {
+				sharedConsumerInstance = null;
+			}
+		}
+	}
+	
+	@Override
+	protected ListenableFuture<Void> postExecute(ListeningExecutorService service, int threadCount) {
 		// Nothing to do
+		return Futures.immediateFuture(null);
 	}
 
 	
@@ -60,12 +91,13 @@ class ConsumingStage<In> extends Stage<In> implements ConsumingTask {
 	 *
 	 * @param <In> The input type
 	 */
-	private static class StageExecutor<In> implements Runnable {
+	private static class StageExecutor<In> implements StageWorker {
 		private final ConsumingStage<In> stage;
 		
 		private final Supplier<In> inputSupplier;
 		
 		private Consumer<? super In> consumerInstance;
+		private long itemCount;
 		
 		public StageExecutor(ConsumingStage<In> stage, Supplier<In> inputSupplier) {
 			Preconditions.checkNotNull(stage);
@@ -74,10 +106,6 @@ class ConsumingStage<In> extends Stage<In> implements ConsumingTask {
 			
 			this.stage = stage;
 			this.inputSupplier = inputSupplier;
-			
-			if (stage.supplierOptions == InstanceOptions.PerThread) {
-				consumerInstance = stage.consumerSupplier.get();
-			}
 		}
 		
 		public StageExecutor(ConsumingStage<In> stage, Supplier<In> inputSupplier, Consumer<? super In> consumerInstance) {
@@ -92,20 +120,65 @@ class ConsumingStage<In> extends Stage<In> implements ConsumingTask {
 		}
 		
 		@Override
-		public void run() {
-			while (true) {
+		public boolean process(int maxItems) {
+			// Per thread instances are created by the thread that uses them so they are created in parallel
+			if (stage.supplierOptions == InstanceOptions.PerThread && consumerInstance == null) {
+				consumerInstance = stage.consumerSupplier.get();
+			}
+			
+			Tracer tracer = stage.getTracer();
+			for (int i = 0; i < maxItems; ++i) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new CancellationException("The stage was cancelled");
+				}
+				
+				boolean traced = tracer.sampleItem(++itemCount);
+				
 				// Next object to process
+				long waitBegin = (traced ? tracer.begin() : Tracer.NOT_TRACED);
 				In input = inputSupplier.get();
+				tracer.end("supplier", "Wait for input", waitBegin);
 				if (input == null) {
-					return;
+					return false;
 				}
 				
-				// Retrieve the per task instance if needed
-				if (stage.supplierOptions == InstanceOptions.PerTask) {
-					consumerInstance = stage.consumerSupplier.get();
+				long itemBegin = (traced ? tracer.begin() : Tracer.NOT_TRACED);
+				
+				long permit = stage.acquirePermit(1);
+				boolean failed = true;
+				try {
+					// Retrieve the per task instance if needed
+					if (stage.supplierOptions == InstanceOptions.PerTask) {
+						consumerInstance = stage.consumerSupplier.get();
+						try {
+							consumerInstance.accept(input);
+						} finally {
+							closeInstance(consumerInstance);
+							consumerInstance = null;
+						}
+					} else {
+						consumerInstance.accept(input);
+					}
+					failed = false;
+				} finally {
+					stage.releasePermit(permit, failed);
 				}
 				
-				consumerInstance.accept(input);
+				tracer.end("item", "Item", itemBegin);
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public void close() {
+			// Shared instances are closed by the stage
+			if (stage.supplierOptions == InstanceOptions.PerThread) {
+				try {
+					closeInstance(consumerInstance);
+				} finally {
+					consumerInstance = null;
+				}
 			}
 		}
 	}
@@ -13,13 +13,17 @@ public interface ConsumingTask {
 	/**
 	 * Executes the tasks according to the applied settings and
 	 * gives back a ListenableFuture.
+	 * When the task has several branches it only starts once every branch has been executed,
+	 * and each future completes once its own branch is finished.
 	 * @return A ListenableFuture that can be used to check when execution is finished
 	 */
 	ListenableFuture<Void> execute();
 	
 	/**
 	 * Executes the tasks according to the applied settings and
-	 * waits until it is complete.
+	 * waits until it is complete. This must be the last branch of the task to be executed.
+	 * @throws IllegalStateException Thrown if another branch of the task has not been executed yet,
+	 *         as the task would never start. Execute the other branches first or use execute()
 	 */
 	void executeAndWait() throws InterruptedException, ExecutionException;
 }
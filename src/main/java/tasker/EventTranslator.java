@@ -0,0 +1,20 @@
+package tasker;
+
+/**
+ * Copies an item into a preallocated event of a ring.
+ * @author schmoller
+ *
+ * @param <T> The item type
+ * @param <E> The event type
+ * @see ItemTasker#intoRing(int, java.util.function.Supplier, EventTranslator)
+ */
+@FunctionalInterface
+public interface EventTranslator<T, E> {
+	/**
+	 * Writes the item into the event. The event still holds whatever was last
+	 * written to it, so every field that is used must be overwritten.
+	 * @param item The item to copy from
+	 * @param event The event to copy into
+	 */
+	void translate(T item, E event);
+}
@@ -0,0 +1,271 @@
+package tasker;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+/**
+ * A bounded queue that any number of threads may add to and take from without locking.
+ * <p>
+ * Each slot has a sequence that tells producers when it is free and consumers when it
+ * is filled, so a producer and a consumer only contend when they want the same position.
+ * Taking from the queue waits while it is empty and only returns null once the queue
+ * has been closed and everything in it has been taken.
+ * @author schmoller
+ *
+ * @param <T> The item type
+ */
+class FeedQueue<T> implements Supplier<T>, AutoCloseable {
+	/**
+	 * The number of items buffered for each executing thread when no capacity is given
+	 */
+	static final int DEFAULT_CAPACITY_PER_THREAD = 64;
+	
+	private static final int SPIN_ATTEMPTS = 100;
+	private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	private final Object[] items;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	
+	private final Sequence enqueuePosition;
+	private final Sequence dequeuePosition;
+	
+	// The number of producers between checking that the queue is open and adding their item
+	private final AtomicInteger offering;
+	private volatile boolean closed;
+	private volatile Throwable failure;
+	
+	/**
+	 * @param capacity The maximum number of items held. This is rounded up to a power of 2
+	 */
+	public FeedQueue(int capacity) {
+		Preconditions.checkArgument(capacity > 0, "Capacity cannot be less than 1");
+		
+		int size = Math.max(1, Integer.highestOneBit(capacity - 1) << 1);
+		items = new Object[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; ++i) {
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+		
+		enqueuePosition = new Sequence(0);
+		dequeuePosition = new Sequence(0);
+		offering = new AtomicInteger();
+	}
+	
+	/**
+	 * Adds an item if there is room for it
+	 * @param item The item to add
+	 * @return True if the item was added, false if the queue is full
+	 * @throws IllegalStateException Thrown if the queue is closed
+	 */
+	public boolean tryOffer(T item) {
+		Preconditions.checkNotNull(item);
+		
+		offering.incrementAndGet();
+		try {
+			checkOpen();
+			return enqueue(item);
+		} finally {
+			offering.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Adds an item, waiting for room if the queue is full
+	 * @param item The item to add
+	 * @throws InterruptedException Thrown if interrupted while waiting
+	 * @throws IllegalStateException Thrown if the queue is closed
+	 */
+	public void offer(T item) throws InterruptedException {
+		Preconditions.checkNotNull(item);
+		
+		for (int attempt = 0; !tryOffer(item); ++attempt) {
+			idle(attempt);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+	
+	/**
+	 * Adds an item, waiting up to the timeout for room if the queue is full
+	 * @param item The item to add
+	 * @param timeout The longest time to wait
+	 * @param unit The unit of the timeout
+	 * @return True if the item was added, false if there was no room before the timeout
+	 * @throws InterruptedException Thrown if interrupted while waiting
+	 * @throws IllegalStateException Thrown if the queue is closed
+	 */
+	public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+		Preconditions.checkNotNull(item);
+		
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (int attempt = 0; !tryOffer(item); ++attempt) {
+			if (System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+			
+			idle(attempt);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Takes the next item, waiting while the queue is empty
+	 * @return The item, or null once the queue is closed and empty
+	 */
+	@Override
+	public T get() {
+		for (int attempt = 0; ; ++attempt) {
+			T item = poll();
+			if (item != null) {
+				return item;
+			}
+			
+			if (failure != null) {
+				return null;
+			}
+			
+			// Anything added before the last producer finished is still taken
+			if (closed && offering.get() == 0) {
+				return poll();
+			}
+			
+			if (Thread.currentThread().isInterrupted()) {
+				throw new CancellationException("Interrupted while waiting for items");
+			}
+			
+			idle(attempt);
+		}
+	}
+	
+	/**
+	 * Stops accepting items. Items already in the queue are still taken
+	 */
+	@Override
+	public void close() {
+		closed = true;
+	}
+	
+	/**
+	 * Stops accepting items and discards those not yet taken.
+	 * Producers are given the cause rather than being told the queue is closed
+	 * @param cause The reason the items will not be taken
+	 */
+	public void abort(Throwable cause) {
+		Preconditions.checkNotNull(cause);
+		
+		failure = cause;
+		closed = true;
+	}
+	
+	/**
+	 * @return True if no more items are accepted
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * @return True once nothing more will be added, either because the queue was aborted
+	 *         or because it is closed and no producer is still adding. Items may remain to be taken
+	 */
+	boolean isFinished() {
+		return failure != null || (closed && offering.get() == 0);
+	}
+	
+	private void checkOpen() {
+		Throwable cause = failure;
+		if (cause != null) {
+			Throwables.propagateIfPossible(cause);
+			throw new IllegalStateException("The items will not be taken", cause);
+		}
+		
+		Preconditions.checkState(!closed, "The feed is closed");
+	}
+	
+	private boolean enqueue(T item) {
+		long position = enqueuePosition.get();
+		int index;
+		while (true) {
+			index = (int)(position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (enqueuePosition.compareAndSet(position, position + 1)) {
+					break;
+				}
+				position = enqueuePosition.get();
+			} else if (difference < 0) {
+				// The slot still holds the item from the previous lap
+				return false;
+			} else {
+				position = enqueuePosition.get();
+			}
+		}
+		
+		items[index] = item;
+		// Ordered so the item is visible before the slot is marked as filled
+		sequences.lazySet(index, position + 1);
+		return true;
+	}
+	
+	/**
+	 * Takes the next item without waiting
+	 * @return The item, or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	T poll() {
+		long position = dequeuePosition.get();
+		int index;
+		while (true) {
+			index = (int)(position & mask);
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (dequeuePosition.compareAndSet(position, position + 1)) {
+					break;
+				}
+				position = dequeuePosition.get();
+			} else if (difference < 0) {
+				// Nothing has been added to the slot yet
+				return null;
+			} else {
+				position = dequeuePosition.get();
+			}
+		}
+		
+		T item = (T)items[index];
+		items[index] = null;
+		// Frees the slot for the next lap
+		sequences.lazySet(index, position + items.length);
+		return item;
+	}
+	
+	/**
+	 * Spins, then yields, then parks for increasingly long periods so an idle feed uses little CPU
+	 * @param attempt The number of times this has been called for the current wait
+	 */
+	static void idle(int attempt) {
+		if (attempt < SPIN_ATTEMPTS) {
+			return;
+		} else if (attempt < SPIN_ATTEMPTS * 2) {
+			Thread.yield();
+		} else {
+			int doublings = Math.min(attempt - SPIN_ATTEMPTS * 2, 16);
+			LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, MIN_PARK_NANOS << doublings));
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package tasker;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task whose input is offered while it runs
+ * @author schmoller
+ *
+ * @param <In> The item type
+ */
+class FeedTask<In> extends Task<In> implements TaskFeed<In> {
+	private final FeedQueue<In> queue;
+	
+	public FeedTask(int threadCount, ExecutorService baseService, boolean shutdownOnCompletion, Tracer tracer, boolean lowFootprint, FeedQueue<In> queue) {
+		super(threadCount, baseService, shutdownOnCompletion, tracer, lowFootprint, queue);
+		this.queue = queue;
+	}
+	
+	@Override
+	public boolean tryOffer(In item) {
+		return queue.tryOffer(item);
+	}
+	
+	@Override
+	public void offer(In item) throws InterruptedException {
+		queue.offer(item);
+	}
+	
+	@Override
+	public boolean offer(In item, long timeout, TimeUnit unit) throws InterruptedException {
+		return queue.offer(item, timeout, unit);
+	}
+	
+	@Override
+	public void close() {
+		queue.close();
+	}
+	
+	@Override
+	public boolean isClosed() {
+		return queue.isClosed();
+	}
+	
+	@Override
+	boolean isStreaming() {
+		return true;
+	}
+}
@@ -0,0 +1,348 @@
+package tasker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+class FileSinkStage<In> extends Stage<In> implements ConsumingTask {
+	static final int BUFFER_SIZE = 256 * 1024;
+	static final int BATCH_SIZE = 1024;
+	
+	private final Path file;
+	private final RecordEncoder<? super In> encoder;
+	private final WriteOrder order;
+	
+	public FileSinkStage(Task<?> task, Path file, RecordEncoder<? super In> encoder, WriteOrder order) {
+		super(task);
+		
+		Preconditions.checkNotNull(file);
+		Preconditions.checkNotNull(encoder);
+		Preconditions.checkNotNull(order);
+		
+		this.file = file;
+		this.encoder = encoder;
+		this.order = order;
+	}
+	
+	public ListenableFuture<Void> execute() {
+		return getTask().executeTask(this);
+	}
+	
+	public void executeAndWait() throws InterruptedException, ExecutionException {
+		getTask().checkStartsTask(this);
+		ListenableFuture<Void> future = execute();
+		
+		future.get();
+	}
+	
+	
+	private FileChannel channel;
+	private boolean streaming;
+	
+	private final Object batchLock = new Object();
+	// Guarded by batchLock
+	private long nextBatch;
+	
+	// Guarded by this
+	private long filePosition;
+	private long nextReservation;
+	private boolean aborted;
+	
+	@Override
+	protected void preExecute() {
+		try {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		
+		// Items of a feed may arrive slowly, so they are not held back to fill a batch or buffer
+		streaming = getTask().isStreaming();
+		filePosition = 0;
+		nextBatch = 0;
+		nextReservation = 0;
+		aborted = false;
+	}
+	
+	@Override
+	protected StageWorker createExecutor(Supplier<In> supplier) {
+		if (order == WriteOrder.Ordered) {
+			return new OrderedExecutor<>(this, supplier);
+		} else {
+			return new UnorderedExecutor<>(this, supplier);
+		}
+	}
+	
+	@Override
+	protected ListenableFuture<Void> postExecute(ListeningExecutorService service, int threadCount) {
+		// Nothing to do
+		return Futures.immediateFuture(null);
+	}
+	
+	@Override
+	protected void cleanup() {
+		closeChannel();
+	}
+	
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				channel = null;
+			}
+		}
+	}
+	
+	/**
+	 * Reserves space at the end of the file without waiting for other threads
+	 * @param length The number of bytes to reserve
+	 * @return The position in the file to write to
+	 */
+	private synchronized long reserve(long length) {
+		long position = filePosition;
+		filePosition += length;
+		return position;
+	}
+	
+	/**
+	 * Reserves space at the end of the file once all previous batches have been reserved
+	 * @param batch The batch number to reserve for
+	 * @param length The number of bytes to reserve
+	 * @return The position in the file to write to
+	 */
+	private synchronized long reserveInOrder(long batch, long length) throws InterruptedException {
+		while (nextReservation != batch) {
+			if (aborted) {
+				throw new IllegalStateException("Another thread failed to write to the sink");
+			}
+			wait();
+		}
+		
+		++nextReservation;
+		notifyAll();
+		
+		return reserve(length);
+	}
+	
+	private synchronized void abort() {
+		aborted = true;
+		notifyAll();
+	}
+	
+	private void write(ByteBuffer buffer, long position) {
+		try {
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Encodes an item into the buffer.
+	 * @return True if the item was encoded. False if the buffer is full
+	 */
+	private boolean encode(In input, ByteBuffer buffer) {
+		int start = buffer.position();
+		try {
+			encoder.encode(input, buffer);
+			return true;
+		} catch (BufferOverflowException e) {
+			Preconditions.checkState(start != 0, "Record is larger than the buffer size of %s bytes", BUFFER_SIZE);
+			buffer.position(start);
+			return false;
+		}
+	}
+	
+	/**
+	 * Executor that writes each full buffer to the end of the file
+	 * @author schmoller
+	 *
+	 * @param <In> The input type
+	 */
+	private static class UnorderedExecutor<In> implements StageWorker {
+		private final FileSinkStage<In> stage;
+		private final Supplier<In> inputSupplier;
+		
+		private ByteBuffer buffer;
+		
+		public UnorderedExecutor(FileSinkStage<In> stage, Supplier<In> inputSupplier) {
+			Preconditions.checkNotNull(stage);
+			Preconditions.checkNotNull(inputSupplier);
+			
+			this.stage = stage;
+			this.inputSupplier = inputSupplier;
+		}
+		
+		@Override
+		public boolean process(int maxItems) {
+			if (buffer == null) {
+				buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			}
+			
+			for (int i = 0; i < maxItems; ++i) {
+				// Next object to process
+				In input = inputSupplier.get();
+				if (input == null) {
+					flush(buffer);
+					return false;
+				}
+				
+				if (!stage.encode(input, buffer)) {
+					flush(buffer);
+					stage.encode(input, buffer);
+				}
+				
+				if (stage.streaming) {
+					flush(buffer);
+				}
+			}
+			
+			return true;
+		}
+		
+		private void flush(ByteBuffer buffer) {
+			buffer.flip();
+			if (buffer.hasRemaining()) {
+				stage.write(buffer, stage.reserve(buffer.remaining()));
+			}
+			buffer.clear();
+		}
+	}
+	
+	/**
+	 * Executor that takes batches of items from the supplier and
+	 * writes them in the order the batches were taken.
+	 * @author schmoller
+	 *
+	 * @param <In> The input type
+	 */
+	private static class OrderedExecutor<In> implements StageWorker {
+		private final FileSinkStage<In> stage;
+		private final Supplier<In> inputSupplier;
+		
+		private final List<In> batch;
+		private final List<ByteBuffer> buffers;
+		
+		public OrderedExecutor(FileSinkStage<In> stage, Supplier<In> inputSupplier) {
+			Preconditions.checkNotNull(stage);
+			Preconditions.checkNotNull(inputSupplier);
+			
+			this.stage = stage;
+			this.inputSupplier = inputSupplier;
+			
+			batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+			buffers = Lists.newArrayList();
+		}
+		
+		@Override
+		public boolean process(int maxItems) {
+			// A feed is written as its items arrive, and a chunk never takes more than it is allowed
+			int batchLimit = (stage.streaming ? 1 : Math.min(BATCH_SIZE, maxItems));
+			try {
+				// Always whole batches, otherwise the other threads will wait on this one
+				for (int processed = 0; processed < maxItems; processed += batchLimit) {
+					if (!processBatch(batchLimit)) {
+						return false;
+					}
+				}
+				
+				return true;
+			} catch (InterruptedException e) {
+				stage.abort();
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting to write", e);
+			} catch (Throwable e) {
+				stage.abort();
+				throw e;
+			}
+		}
+		
+		/**
+		 * Takes, encodes and writes a single batch
+		 * @param batchLimit The most items to take
+		 * @return True if there may be more items to process
+		 */
+		private boolean processBatch(int batchLimit) throws InterruptedException {
+			// Take the batch and its number together so batches are numbered in supply order
+			boolean exhausted = false;
+			long batchNumber;
+			synchronized (stage.batchLock) {
+				batchNumber = stage.nextBatch++;
+				while (batch.size() < batchLimit) {
+					In input = inputSupplier.get();
+					if (input == null) {
+						exhausted = true;
+						break;
+					}
+					
+					batch.add(input);
+				}
+			}
+			
+			int used = encodeBatch();
+			
+			long length = 0;
+			for (int i = 0; i < used; ++i) {
+				length += buffers.get(i).remaining();
+			}
+			
+			long position = stage.reserveInOrder(batchNumber, length);
+			for (int i = 0; i < used; ++i) {
+				ByteBuffer buffer = buffers.get(i);
+				int size = buffer.remaining();
+				stage.write(buffer, position);
+				position += size;
+				buffer.clear();
+			}
+			
+			return !exhausted;
+		}
+		
+		/**
+		 * Encodes the batch into as many buffers as are needed
+		 * @return The number of buffers used. Each is flipped ready for writing
+		 */
+		private int encodeBatch() {
+			int used = 0;
+			ByteBuffer buffer = nextBuffer(used++);
+			
+			for (In input : batch) {
+				if (!stage.encode(input, buffer)) {
+					buffer.flip();
+					buffer = nextBuffer(used++);
+					stage.encode(input, buffer);
+				}
+			}
+			
+			buffer.flip();
+			batch.clear();
+			return used;
+		}
+		
+		private ByteBuffer nextBuffer(int index) {
+			if (index == buffers.size()) {
+				buffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+			}
+			
+			return buffers.get(index);
+		}
+	}
+}
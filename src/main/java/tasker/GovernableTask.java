@@ -0,0 +1,18 @@
+package tasker;
+
+/**
+ * Defines a task that passes each value to a consumer, which can be governed
+ * 
+ * @author schmoller
+ */
+public interface GovernableTask extends ConsumingTask {
+	/**
+	 * Makes each item wait on a governor before it is consumed, limiting the rate
+	 * or the number of items consumed at once. An item waiting on the governor holds
+	 * its thread, even when the task runs on a {@link TaskScheduler}, so a tight limit
+	 * also slows the other tasks sharing the scheduler.
+	 * @param governor The governor. This may be shared with other stages
+	 * @return this for chaining
+	 */
+	GovernableTask withGovernor(Governor governor);
+}
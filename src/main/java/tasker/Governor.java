@@ -0,0 +1,177 @@
+package tasker;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Limits how hard a stage drives whatever its function or consumer calls, such as a shared backend.
+ * <p>
+ * Each item waits on the governor before the function or consumer is called. A rate limit lets
+ * items through at a fixed rate, with short bursts allowed up to a number of permits saved while idle.
+ * An adaptive limit caps the number of items that are in progress at once. The cap grows by about
+ * one for each cap's worth of items that finish within the latency threshold, and is halved whenever
+ * an item takes longer or fails, so the stage settles near the most the backend can take.
+ * Both limits may be used together.
+ * <p>
+ * A governor may be shared by several stages, or several tasks, that use the same backend,
+ * in which case the limits are shared between them. The limits must be set before any
+ * task using the governor is executed.
+ * @author schmoller
+ * @see OutputtingTask#withGovernor(Governor)
+ * @see GovernableTask#withGovernor(Governor)
+ */
+public class Governor {
+	/**
+	 * The fraction of the concurrency limit kept when an item is slow or fails
+	 */
+	public static final double BACKOFF_RATIO = 0.5;
+	
+	// Rate limit, guarded by this
+	private double permitsPerNano;
+	private double maxPermits;
+	private double storedPermits;
+	private long lastRefill;
+	
+	// Adaptive concurrency limit, guarded by this
+	private boolean adaptive;
+	private double limit;
+	private int maxLimit;
+	private long latencyThresholdNanos;
+	private int inProgress;
+	private long lastBackoff;
+	
+	/**
+	 * Creates a governor that does not limit anything until limits are set
+	 */
+	public Governor() {
+		lastRefill = System.nanoTime();
+		lastBackoff = lastRefill;
+	}
+	
+	/**
+	 * Limits the rate at which items are let through, allowing a burst of up to one
+	 * second's worth of permits after the governor has been idle
+	 * @param permitsPerSecond The number of items let through each second
+	 * @return this for chaining
+	 */
+	public Governor withRateLimit(double permitsPerSecond) {
+		return withRateLimit(permitsPerSecond, (int)Math.max(1, Math.ceil(permitsPerSecond)));
+	}
+	
+	/**
+	 * Limits the rate at which items are let through
+	 * @param permitsPerSecond The number of items let through each second
+	 * @param burst The most permits that are saved up while the governor is idle
+	 * @return this for chaining
+	 */
+	public synchronized Governor withRateLimit(double permitsPerSecond, int burst) {
+		Preconditions.checkArgument(permitsPerSecond > 0, "Rate must be greater than 0");
+		Preconditions.checkArgument(burst > 0, "Burst cannot be less than 1");
+		
+		permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		maxPermits = burst;
+		storedPermits = burst;
+		lastRefill = System.nanoTime();
+		return this;
+	}
+	
+	/**
+	 * Limits the number of items in progress at once, adapting the limit to the latency of each item
+	 * @param initialLimit The limit to start with
+	 * @param maxLimit The most the limit may grow to
+	 * @param latencyThreshold The longest an item may take before the limit is reduced
+	 * @param unit The unit of the threshold
+	 * @return this for chaining
+	 */
+	public synchronized Governor withAdaptiveLimit(int initialLimit, int maxLimit, long latencyThreshold, TimeUnit unit) {
+		Preconditions.checkArgument(initialLimit > 0, "Initial limit cannot be less than 1");
+		Preconditions.checkArgument(maxLimit >= initialLimit, "Max limit cannot be less than the initial limit");
+		Preconditions.checkArgument(latencyThreshold > 0, "Latency threshold must be greater than 0");
+		Preconditions.checkNotNull(unit);
+		
+		adaptive = true;
+		limit = initialLimit;
+		this.maxLimit = maxLimit;
+		latencyThresholdNanos = unit.toNanos(latencyThreshold);
+		return this;
+	}
+	
+	/**
+	 * @return The number of items currently allowed in progress at once,
+	 *         or {@link Integer#MAX_VALUE} if there is no adaptive limit
+	 */
+	public synchronized int getConcurrencyLimit() {
+		return (adaptive ? (int)limit : Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Waits until the permits may be used. {@link #release(long, boolean)} must be called once they are used.
+	 * @param permits The number of items the permits are for. They count against the rate limit,
+	 *                but only take one place from the concurrency limit as they are processed together
+	 * @return The time the permits were acquired
+	 * @throws InterruptedException Thrown if interrupted while waiting
+	 */
+	long acquire(int permits) throws InterruptedException {
+		long wait = reserve(permits);
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+		
+		synchronized (this) {
+			if (adaptive) {
+				while (inProgress >= (int)limit) {
+					wait();
+				}
+				++inProgress;
+			}
+		}
+		
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Reserves permits from the rate limit. Permits may be borrowed from the future,
+	 * in which case the caller waits until they would have been available so that
+	 * each waiting thread wakes at its own time.
+	 * @return The time to wait in nanoseconds
+	 */
+	private synchronized long reserve(int permits) {
+		if (permitsPerNano == 0) {
+			return 0;
+		}
+		
+		long now = System.nanoTime();
+		storedPermits = Math.min(maxPermits, storedPermits + (now - lastRefill) * permitsPerNano);
+		lastRefill = now;
+		
+		storedPermits -= permits;
+		return (storedPermits >= 0 ? 0 : (long)(-storedPermits / permitsPerNano));
+	}
+	
+	/**
+	 * Returns the permits once they have been used
+	 * @param acquired The time returned by {@link #acquire(int)}
+	 * @param failed True if the item failed, which is treated as if it were slow
+	 */
+	synchronized void release(long acquired, boolean failed) {
+		if (!adaptive) {
+			return;
+		}
+		
+		--inProgress;
+		
+		long now = System.nanoTime();
+		if (failed || now - acquired > latencyThresholdNanos) {
+			// Items that started before the last backoff were slowed by the old limit, so only back off once for them
+			if (acquired - lastBackoff > 0) {
+				limit = Math.max(1, limit * BACKOFF_RATIO);
+				lastBackoff = now;
+			}
+		} else {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+		
+		notifyAll();
+	}
+}
@@ -0,0 +1,205 @@
+package tasker;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector.Characteristics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Aggregator that groups elements by key. Each container is split into
+ * a fixed number of hash partitions so that the same partition from every
+ * thread can be merged independently of the others.
+ * @author schmoller
+ *
+ * @param <T> The element type
+ * @param <K> The key type
+ * @param <A> The downstream accumulation type
+ * @param <D> The downstream result type
+ */
+class GroupingAggregator<T, K, A, D> implements Aggregator<T, HashMap<K, A>[], Map<K, D>> {
+	private final Function<? super T, ? extends K> keyFunction;
+	
+	private final Supplier<A> downstreamSupplier;
+	private final BiConsumer<A, ? super T> downstreamAccumulator;
+	private final BinaryOperator<A> downstreamCombiner;
+	private final Function<A, D> downstreamFinisher;
+	private final boolean identityFinish;
+	
+	private final int partitionMask;
+	
+	public GroupingAggregator(Function<? super T, ? extends K> keyFunction, java.util.stream.Collector<? super T, A, D> downstream, int partitionCount) {
+		Preconditions.checkNotNull(keyFunction);
+		Preconditions.checkNotNull(downstream);
+		Preconditions.checkArgument(partitionCount > 0 && Integer.bitCount(partitionCount) == 1, "Partition count must be a power of 2");
+		
+		this.keyFunction = keyFunction;
+		this.downstreamSupplier = downstream.supplier();
+		this.downstreamAccumulator = downstream.accumulator();
+		this.downstreamCombiner = downstream.combiner();
+		this.downstreamFinisher = downstream.finisher();
+		this.identityFinish = downstream.characteristics().contains(Characteristics.IDENTITY_FINISH);
+		this.partitionMask = partitionCount - 1;
+	}
+	
+	/**
+	 * Gets the number of partitions to use when none is specified.
+	 * This is enough partitions to keep every processor busy during the merge
+	 */
+	static int defaultPartitionCount() {
+		return Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+	}
+	
+	private static int partitionHash(Object key) {
+		// Spread the high bits down as HashMap does, the low bits are used for the partition
+		int hash = key.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+	
+	@Override
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public HashMap<K, A>[] createContainer() {
+		HashMap<K, A>[] partitions = new HashMap[partitionMask + 1];
+		for (int i = 0; i < partitions.length; ++i) {
+			partitions[i] = new HashMap<>();
+		}
+		
+		return partitions;
+	}
+	
+	@Override
+	public void accumulate(HashMap<K, A>[] container, T element) {
+		K key = Preconditions.checkNotNull(keyFunction.apply(element), "element cannot be mapped to a null key");
+		
+		HashMap<K, A> partition = container[partitionHash(key) & partitionMask];
+		A group = partition.get(key);
+		if (group == null) {
+			group = downstreamSupplier.get();
+			partition.put(key, group);
+		}
+		
+		downstreamAccumulator.accept(group, element);
+	}
+	
+	@Override
+	public ListenableFuture<Map<K, D>> combine(List<HashMap<K, A>[]> containers, ListeningExecutorService service) {
+		List<ListenableFuture<Map<K, D>>> futures = Lists.newArrayListWithCapacity(partitionMask + 1);
+		
+		// Each partition is disjoint so they can all be merged at once
+		for (int i = 0; i <= partitionMask; ++i) {
+			int partition = i;
+			futures.add(service.submit(() -> mergePartition(containers, partition)));
+		}
+		
+		return Futures.transform(Futures.allAsList(futures), (List<Map<K, D>> partitions) -> new PartitionedMap<>(partitions));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Map<K, D> mergePartition(List<HashMap<K, A>[]> containers, int partition) {
+		// Find the largest so it can be merged into with the fewest inserts
+		HashMap<K, A> merged = null;
+		for (HashMap<K, A>[] container : containers) {
+			if (merged == null || container[partition].size() > merged.size()) {
+				merged = container[partition];
+			}
+		}
+		
+		if (merged == null) {
+			return new HashMap<>();
+		}
+		
+		for (HashMap<K, A>[] container : containers) {
+			if (container[partition] != merged) {
+				for (Map.Entry<K, A> entry : container[partition].entrySet()) {
+					merged.merge(entry.getKey(), entry.getValue(), downstreamCombiner);
+				}
+			}
+		}
+		
+		if (identityFinish) {
+			return (Map<K, D>) merged;
+		}
+		
+		HashMap<K, D> finished = new HashMap<>(merged.size() * 4 / 3 + 1);
+		for (Map.Entry<K, A> entry : merged.entrySet()) {
+			finished.put(entry.getKey(), downstreamFinisher.apply(entry.getValue()));
+		}
+		
+		return finished;
+	}
+	
+	/**
+	 * A read only map view over the merged partitions.
+	 * This avoids copying every group into a single map after the merge
+	 * @param <K> The key type
+	 * @param <V> The value type
+	 */
+	private static class PartitionedMap<K, V> extends AbstractMap<K, V> {
+		private final List<Map<K, V>> partitions;
+		private final int size;
+		
+		public PartitionedMap(List<Map<K, V>> partitions) {
+			this.partitions = partitions;
+			
+			int total = 0;
+			for (Map<K, V> partition : partitions) {
+				total += partition.size();
+			}
+			size = total;
+		}
+		
+		private Map<K, V> partitionFor(Object key) {
+			if (key == null) {
+				return null;
+			}
+			
+			return partitions.get(partitionHash(key) & (partitions.size() - 1));
+		}
+		
+		@Override
+		public V get(Object key) {
+			Map<K, V> partition = partitionFor(key);
+			return (partition == null ? null : partition.get(key));
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			Map<K, V> partition = partitionFor(key);
+			return (partition != null && partition.containsKey(key));
+		}
+		
+		@Override
+		public int size() {
+			return size;
+		}
+		
+		@Override
+		public Set<Entry<K, V>> entrySet() {
+			return new AbstractSet<Entry<K, V>>() {
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					return Iterators.unmodifiableIterator(Iterators.concat(Iterators.transform(partitions.iterator(), partition -> partition.entrySet().iterator())));
+				}
+				
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+	}
+}
@@ -2,6 +2,9 @@ package tasker;
 
 /**
  * Controls the behaviour of suppliers for providing instances.
+ * Instances are created by the thread that will use them. Any instance 
+ * that is {@link AutoCloseable} is closed as soon as it will no longer be used,
+ * including when the task fails or is cancelled.
  * @author schmoller
  */
 public enum InstanceOptions {
@@ -9,16 +12,19 @@ public enum InstanceOptions {
 	 * Only one single instance will be provided.
 	 * The instance MUST be thread-safe as it will
 	 * be used by ALL threads. 
+	 * It is closed once every thread in the stage is finished.
 	 */
 	Single,
 	/**
 	 * One instance will be provided per thread.
 	 * The instance does NOT need to be thread-safe.
+	 * It is closed once its thread is finished.
 	 */
 	PerThread,
 	/**
 	 * One instance will be provided per task.
 	 * The instance does NOT need to be thread-safe.
+	 * It is closed once its task is finished.
 	 */
 	PerTask
 }
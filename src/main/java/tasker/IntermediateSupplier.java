@@ -17,6 +17,11 @@ class IntermediateSupplier<Out> implements Supplier<Out> {
 	@Override
 	public Out get() {
 		synchronized (results) {
+			// Skip any executors that produced nothing
+			while (listIndex < results.length && results[listIndex].isEmpty()) {
+				++listIndex;
+			}
+			
 			if (listIndex >= results.length) {
 				return null;
 			}
@@ -27,6 +32,8 @@ class IntermediateSupplier<Out> implements Supplier<Out> {
 			
 			++elementIndex;
 			if (elementIndex >= list.size()) {
+				// Each branch has its own array, so the list is released once every branch has read it
+				results[listIndex] = null;
 				elementIndex = 0;
 				++listIndex;
 			}
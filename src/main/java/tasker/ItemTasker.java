@@ -1,5 +1,6 @@
 package tasker;
 
+import java.nio.file.Path;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -11,7 +12,7 @@ public interface ItemTasker<T> {
 	 *                 be used by ALL threads. 
 	 * @return Task settings object.
 	 */
-	ConsumingTask intoConsumer(Consumer<? super T> consumer);
+	GovernableTask intoConsumer(Consumer<? super T> consumer);
 	
 	/**
 	 * Consumes the results into provided consumers
@@ -19,7 +20,7 @@ public interface ItemTasker<T> {
 	 * @param consumerSupplier A supplier for consumers 
 	 * @return Task settings object.
 	 */
-	ConsumingTask intoConsumer(Supplier<? extends Consumer<? super T>> consumerSupplier);
+	GovernableTask intoConsumer(Supplier<? extends Consumer<? super T>> consumerSupplier);
 	
 	/**
 	 * Consumes the results into provided consumers
@@ -27,7 +28,38 @@ public interface ItemTasker<T> {
 	 * @param options Controls when instances of the conversion function will be acquired.
 	 * @return Task settings object.
 	 */
-	ConsumingTask intoConsumer(Supplier<? extends Consumer<? super T>> consumerSupplier, InstanceOptions options);
+	GovernableTask intoConsumer(Supplier<? extends Consumer<? super T>> consumerSupplier, InstanceOptions options);
+	
+	/**
+	 * Consumes the results into a single consumer that is only ever used by one thread at a time.
+	 * Each thread collects results into a batch of its own and whichever thread finds the consumer
+	 * free passes every waiting batch to it, so threads rarely wait on each other.
+	 * @param consumer The consumer instance to use. This does not need to be threadsafe
+	 * @return Task settings object.
+	 */
+	GovernableTask intoSerialConsumer(Consumer<? super T> consumer);
+	
+	/**
+	 * Writes the results into a file. Each thread encodes into its own buffer
+	 * and full buffers are written directly to their own part of the file.
+	 * Results are written in no particular order.
+	 * @param file The file to write to. This will be replaced if it already exists
+	 * @param encoder The encoder that converts results into bytes. This MUST be threadsafe
+	 *                as it will be used by ALL threads.
+	 * @return Task settings object.
+	 */
+	ConsumingTask intoFileSink(Path file, RecordEncoder<? super T> encoder);
+	
+	/**
+	 * Writes the results into a file. Each thread encodes into its own buffer
+	 * and full buffers are written directly to their own part of the file.
+	 * @param file The file to write to. This will be replaced if it already exists
+	 * @param encoder The encoder that converts results into bytes. This MUST be threadsafe
+	 *                as it will be used by ALL threads.
+	 * @param order Controls whether results are written in the order they are supplied
+	 * @return Task settings object.
+	 */
+	ConsumingTask intoFileSink(Path file, RecordEncoder<? super T> encoder, WriteOrder order);
 	
 	/**
 	 * Converts the results from one task execution to another type using a function.
@@ -35,7 +67,7 @@ public interface ItemTasker<T> {
 	 *                 be used by ALL threads. 
 	 * @return Task settings object for the new type.
 	 */
-	<R> OutputtingTask<R> intoFunction(Function<? super T, ? extends R> function);
+	<R> SpeculativeTask<R> intoFunction(Function<? super T, ? extends R> function);
 	
 	/**
 	 * Converts the results from one task execution to another type using a function.
@@ -43,7 +75,7 @@ public interface ItemTasker<T> {
 	 * @param functionSupplier A supplier for functions 
 	 * @return Task settings object for the new type.
 	 */
-	<R> OutputtingTask<R> intoFunction(Supplier<? extends Function<? super T, ? extends R>> functionSupplier);
+	<R> SpeculativeTask<R> intoFunction(Supplier<? extends Function<? super T, ? extends R>> functionSupplier);
 	
 	/**
 	 * Converts the results from one task execution to another type using a function.
@@ -51,5 +83,33 @@ public interface ItemTasker<T> {
 	 * @param options Controls when instances of the conversion function will be acquired.
 	 * @return Task settings object for the new type.
 	 */
-	<R> OutputtingTask<R> intoFunction(Supplier<? extends Function<? super T, ? extends R>> functionSupplier, InstanceOptions options);
+	<R> SpeculativeTask<R> intoFunction(Supplier<? extends Function<? super T, ? extends R>> functionSupplier, InstanceOptions options);
+	
+	/**
+	 * Converts the results from one task execution to another type using a function
+	 * that runs in the worker processes of a pool. Each thread of the task sends chunks
+	 * of results to a worker and waits for them to be converted, so the task needs at least
+	 * as many threads as there are processes to keep them all busy.
+	 * The results and the converted results must be {@link java.io.Serializable}.
+	 * @param pool The pool of worker processes
+	 * @param functionFactory A serializable supplier for functions. It is sent to each worker,
+	 *                        which creates a function for each thread of the task
+	 * @return Task settings object for the new type.
+	 */
+	<R> OutputtingTask<R> intoRemoteFunction(ProcessPool pool, SerializableSupplier<? extends Function<? super T, ? extends R>> functionFactory);
+	
+	/**
+	 * Passes the results through a ring of preallocated events that are handled in place.
+	 * Each result is translated into the next free event by a single thread, then the handlers
+	 * added to the returned task handle each event in order of the handlers, each handler using
+	 * every thread. No objects are created per result by the ring itself.
+	 * Every handler runs at once, so the task needs one more thread than the number of handlers
+	 * multiplied by the thread count, unless it runs on a {@link TaskScheduler}. The task fails
+	 * if it is given a thread pool whose maximum size is smaller than that.
+	 * @param size The number of events in the ring. This must be a power of 2
+	 * @param eventFactory Creates each event once, before the task starts
+	 * @param translator Copies a result into an event. This is only used by one thread at a time
+	 * @return Task settings object for the ring.
+	 */
+	<E> RingTask<E> intoRing(int size, Supplier<? extends E> eventFactory, EventTranslator<? super T, ? super E> translator);
 }
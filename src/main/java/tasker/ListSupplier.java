@@ -0,0 +1,37 @@
+package tasker;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Supplies the items of a random access list in place, without copying it
+ * or locking between threads
+ * @author schmoller
+ *
+ * @param <T> The item type
+ */
+class ListSupplier<T> implements Supplier<T> {
+	private final List<T> list;
+	private final AtomicInteger index;
+	
+	public ListSupplier(List<T> list) {
+		this.list = list;
+		index = new AtomicInteger();
+	}
+	
+	@Override
+	public T get() {
+		// Stops the index growing once the list is exhausted
+		if (index.get() >= list.size()) {
+			return null;
+		}
+		
+		int next = index.getAndIncrement();
+		if (next >= list.size()) {
+			return null;
+		}
+		
+		return list.get(next);
+	}
+}
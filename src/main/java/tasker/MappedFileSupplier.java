@@ -0,0 +1,209 @@
+package tasker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Supplies records from a memory mapped file.
+ * The file is split into segments that end on a record boundary. Each executor
+ * has its own reader that claims a whole segment at a time and reads records
+ * from it without any locking.
+ * @author schmoller
+ *
+ * @param <T> The record type
+ */
+class MappedFileSupplier<T> implements PartitionedSupplier<T> {
+	static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	private static final int SEARCH_WINDOW = 64 * 1024;
+	
+	private final MappedByteBuffer[] segments;
+	private final RecordDelimiter delimiter;
+	private final AtomicInteger nextSegment;
+	private final Supplier<? extends Function<ByteBuffer, ? extends T>> decoderSupplier;
+	// Used by callers that read without their own reader
+	private final Reader shared;
+	
+	/**
+	 * Maps the file ready for reading
+	 * @param file The file to read
+	 * @param delimiter The delimiter between records
+	 * @param decoderSupplier Provides a decoder for each reader to turn the record bytes into T. The decoders do NOT need to be thread-safe
+	 * @param segmentSize The approximate size of each segment in bytes
+	 * @throws IOException Thrown if the file cannot be mapped
+	 */
+	public MappedFileSupplier(Path file, RecordDelimiter delimiter, Supplier<? extends Function<ByteBuffer, ? extends T>> decoderSupplier, int segmentSize) throws IOException {
+		Preconditions.checkNotNull(delimiter);
+		Preconditions.checkNotNull(decoderSupplier);
+		Preconditions.checkArgument(segmentSize > 0, "Segment size cannot be less than 1");
+		
+		this.delimiter = delimiter;
+		nextSegment = new AtomicInteger();
+		this.decoderSupplier = decoderSupplier;
+		shared = new Reader();
+		
+		// Mapped buffers remain valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			List<Long> boundaries = findBoundaries(channel, segmentSize);
+			
+			segments = new MappedByteBuffer[boundaries.size() - 1];
+			for (int i = 0; i < segments.length; ++i) {
+				long start = boundaries.get(i);
+				long length = boundaries.get(i + 1) - start;
+				Preconditions.checkState(length <= Integer.MAX_VALUE, "Record at %s is too large to be mapped", start);
+				
+				segments[i] = channel.map(MapMode.READ_ONLY, start, length);
+			}
+		}
+	}
+	
+	private List<Long> findBoundaries(FileChannel channel, int segmentSize) throws IOException {
+		long size = channel.size();
+		List<Long> boundaries = Lists.newArrayList();
+		boundaries.add(0L);
+		
+		for (long nominal = segmentSize; nominal < size; nominal += segmentSize) {
+			long previous = boundaries.get(boundaries.size() - 1);
+			if (nominal <= previous) {
+				// A previous record covered this whole segment
+				continue;
+			}
+			
+			// A delimiter may straddle the nominal boundary
+			long boundary = findRecordEnd(channel, Math.max(previous, nominal - delimiter.length() + 1), size);
+			if (boundary < size) {
+				boundaries.add(boundary);
+			}
+		}
+		
+		if (size > 0) {
+			boundaries.add(size);
+		}
+		
+		return boundaries;
+	}
+	
+	private long findRecordEnd(FileChannel channel, long start, long size) throws IOException {
+		int window = SEARCH_WINDOW;
+		while (true) {
+			long length = Math.min(window, size - start);
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, length);
+			
+			int index = delimiter.indexOf(buffer, 0);
+			if (index >= 0) {
+				return start + index + delimiter.length();
+			}
+			
+			if (start + length >= size) {
+				return size;
+			}
+			
+			Preconditions.checkState(window <= Integer.MAX_VALUE / 2, "Record at %s is too large to be mapped", start);
+			window *= 2;
+		}
+	}
+	
+	@Override
+	public T get() {
+		synchronized (shared) {
+			return shared.get();
+		}
+	}
+	
+	@Override
+	public Supplier<T> createReader() {
+		return new Reader();
+	}
+	
+	/**
+	 * Gets a decoder that converts line records into text.
+	 * Any trailing carriage return is removed
+	 * @param charset The charset of the file
+	 * @return A new decoder. This is NOT thread-safe
+	 */
+	static Function<ByteBuffer, CharSequence> lineDecoder(Charset charset) {
+		CharsetDecoder decoder = charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		
+		return record -> {
+			if (record.limit() > 0 && record.get(record.limit() - 1) == '\r') {
+				record.limit(record.limit() - 1);
+			}
+			
+			try {
+				return decoder.decode(record);
+			} catch (CharacterCodingException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+	}
+	
+	/**
+	 * Reads records from the segments it claims
+	 * @author schmoller
+	 */
+	private class Reader implements Supplier<T> {
+		private final Function<ByteBuffer, ? extends T> decoder;
+		private ByteBuffer segment;
+		private int position;
+		
+		public Reader() {
+			decoder = decoderSupplier.get();
+		}
+		
+		@Override
+		public T get() {
+			while (true) {
+				if (segment == null) {
+					int index = nextSegment.getAndIncrement();
+					if (index >= segments.length) {
+						return null;
+					}
+					
+					// Only this reader will ever see this segment, drop it from the table
+					segment = segments[index];
+					position = 0;
+					segments[index] = null;
+				}
+				
+				int start = position;
+				if (start >= segment.limit()) {
+					segment = null;
+					continue;
+				}
+				
+				int end = delimiter.indexOf(segment, start);
+				if (end < 0) {
+					// The last record does not need a trailing delimiter
+					end = segment.limit();
+					position = end;
+				} else {
+					position = end + delimiter.length();
+				}
+				
+				ByteBuffer record = segment.duplicate();
+				record.limit(end);
+				record.position(start);
+				
+				return decoder.apply(record.slice());
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package tasker;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Supplies the items of several suppliers, one supplier after another.
+ * <p>
+ * When every supplier is a {@link FeedQueue} the stages that fill them are still running,
+ * so the queues are instead read in turn without waiting on any one of them. Otherwise
+ * a queue that is not being read could fill up and block the stages feeding the others.
+ * @author schmoller
+ *
+ * @param <T> The item type
+ */
+class MergedSupplier<T> implements Supplier<T> {
+	private final List<Supplier<T>> suppliers;
+	private final boolean fed;
+	private final AtomicInteger current;
+	
+	public MergedSupplier(List<Supplier<T>> suppliers) {
+		this.suppliers = suppliers;
+		fed = suppliers.stream().allMatch(supplier -> supplier instanceof FeedQueue);
+		current = new AtomicInteger();
+	}
+	
+	@Override
+	public T get() {
+		if (fed) {
+			return getFed();
+		}
+		
+		while (true) {
+			int index = current.get();
+			if (index >= suppliers.size()) {
+				return null;
+			}
+			
+			T item = suppliers.get(index).get();
+			if (item != null) {
+				return item;
+			}
+			
+			// Exhausted suppliers keep returning null so it does not matter which thread moves on
+			current.compareAndSet(index, index + 1);
+		}
+	}
+	
+	private T getFed() {
+		for (int attempt = 0; ; ++attempt) {
+			boolean open = false;
+			// Each call starts at the next queue so that none of them is favoured
+			int start = current.getAndIncrement();
+			for (int i = 0; i < suppliers.size(); ++i) {
+				FeedQueue<T> queue = (FeedQueue<T>)suppliers.get(Math.floorMod(start + i, suppliers.size()));
+				
+				// Checked before polling, as anything added before it finished is still taken
+				boolean finished = queue.isFinished();
+				T item = queue.poll();
+				if (item != null) {
+					return item;
+				}
+				
+				if (!finished) {
+					open = true;
+				}
+			}
+			
+			if (!open) {
+				return null;
+			}
+			
+			if (Thread.currentThread().isInterrupted()) {
+				throw new CancellationException("Interrupted while waiting for items");
+			}
+			
+			FeedQueue.idle(attempt);
+		}
+	}
+}
@@ -1,12 +1,27 @@
 package tasker;
 
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AbstractFuture;
@@ -14,54 +29,145 @@ import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
-class OutputtingStage<In,Out> extends Stage<In> implements OutputtingTask<Out> {
+class OutputtingStage<In,Out> extends Stage<In> implements SpeculativeTask<Out> {
+	/**
+	 * How many times longer than the average item an item must run before it is copied
+	 */
+	private static final long STRAGGLER_FACTOR = 4;
+	private static final long MIN_STRAGGLER_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+	private static final long MAX_SPECULATION_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	
 	private Supplier<? extends Function<? super In, ? extends Out>> functionSupplier;
 	private InstanceOptions supplierOptions;
+	private final boolean closeSharedInstance;
 	
-	private Stage<Out> nextStage;
+	private final List<Stage<Out>> nextStages;
+	// The number of stages whose output is merged into this one
+	private int inputCount;
+	private AggregateOutput<Out, ?, ?> aggregateOutput;
+	private PublisherOutput<Out> publisherOutput;
+	private boolean speculative;
 	
 	public OutputtingStage(Task<?> task, Supplier<? extends Function<? super In, ? extends Out>> functionSupplier, InstanceOptions options) {
+		this(task, functionSupplier, options, true);
+	}
+	
+	/**
+	 * @param closeSharedInstance False if a {@link InstanceOptions#Single} instance belongs to the caller and must not be closed
+	 */
+	public OutputtingStage(Task<?> task, Supplier<? extends Function<? super In, ? extends Out>> functionSupplier, InstanceOptions options, boolean closeSharedInstance) {
 		super(task);
 		this.functionSupplier = functionSupplier;
 		this.supplierOptions = options;
+		this.closeSharedInstance = closeSharedInstance;
+		
+		nextStages = Lists.newArrayList();
+		inputCount = 1;
 	}
 
-	public ConsumingTask intoConsumer(Consumer<? super Out> consumer) {
-		return intoConsumer(() -> consumer, InstanceOptions.Single);
+	public GovernableTask intoConsumer(Consumer<? super Out> consumer) {
+		// The consumer belongs to the caller, it is not closed
+		ConsumingStage<Out> next = new ConsumingStage<>(getTask(), () -> consumer, InstanceOptions.Single, false);
+		nextStages.add(next);
+		return next;
 	}
 
-	public ConsumingTask intoConsumer(Supplier<? extends Consumer<? super Out>> consumerSupplier) {
+	public GovernableTask intoConsumer(Supplier<? extends Consumer<? super Out>> consumerSupplier) {
 		return intoConsumer(consumerSupplier, InstanceOptions.PerThread);
 	}
 
-	public ConsumingTask intoConsumer(Supplier<? extends Consumer<? super Out>> consumerSupplier, InstanceOptions options) {
+	public GovernableTask intoConsumer(Supplier<? extends Consumer<? super Out>> consumerSupplier, InstanceOptions options) {
 		ConsumingStage<Out> next = new ConsumingStage<>(getTask(), consumerSupplier, options);
-		nextStage = next;
+		nextStages.add(next);
+		return next;
+	}
+	
+	public GovernableTask intoSerialConsumer(Consumer<? super Out> consumer) {
+		SerialConsumingStage<Out> next = new SerialConsumingStage<>(getTask(), consumer);
+		nextStages.add(next);
+		return next;
+	}
+	
+	public ConsumingTask intoFileSink(Path file, RecordEncoder<? super Out> encoder) {
+		return intoFileSink(file, encoder, WriteOrder.Unordered);
+	}
+	
+	public ConsumingTask intoFileSink(Path file, RecordEncoder<? super Out> encoder, WriteOrder order) {
+		FileSinkStage<Out> next = new FileSinkStage<>(getTask(), file, encoder, order);
+		nextStages.add(next);
 		return next;
 	}
 
-	public <R> OutputtingTask<R> intoFunction(Function<? super Out, ? extends R> function) {
-		return intoFunction(() -> function, InstanceOptions.Single);
+	public <R> SpeculativeTask<R> intoFunction(Function<? super Out, ? extends R> function) {
+		// The function belongs to the caller, it is not closed
+		OutputtingStage<Out, R> next = new OutputtingStage<>(getTask(), () -> function, InstanceOptions.Single, false);
+		nextStages.add(next);
+		return next;
 	}
 
-	public <R> OutputtingTask<R> intoFunction(Supplier<? extends Function<? super Out, ? extends R>> functionSupplier) {
+	public <R> SpeculativeTask<R> intoFunction(Supplier<? extends Function<? super Out, ? extends R>> functionSupplier) {
 		return intoFunction(functionSupplier, InstanceOptions.PerThread);
 	}
 
-	public <R> OutputtingTask<R> intoFunction(Supplier<? extends Function<? super Out, ? extends R>> functionSupplier, InstanceOptions options) {
+	public <R> SpeculativeTask<R> intoFunction(Supplier<? extends Function<? super Out, ? extends R>> functionSupplier, InstanceOptions options) {
 		OutputtingStage<Out, R> next = new OutputtingStage<>(getTask(), functionSupplier, options);
-		nextStage = next;
+		nextStages.add(next);
 		return next;
 	}
 
+	public <R> OutputtingTask<R> intoRemoteFunction(ProcessPool pool, SerializableSupplier<? extends Function<? super Out, ? extends R>> functionFactory) {
+		RemoteStage<Out, R> next = new RemoteStage<>(getTask(), pool, functionFactory);
+		nextStages.add(next);
+		return next;
+	}
+
+	public <E> RingTask<E> intoRing(int size, Supplier<? extends E> eventFactory, EventTranslator<? super Out, ? super E> translator) {
+		RingStage<Out, E> next = new RingStage<>(getTask(), size, eventFactory, translator);
+		nextStages.add(next);
+		return next;
+	}
+	
+	public OutputtingTask<Out> mergeWith(OutputtingTask<? extends Out> other) {
+		return mergeWith(Collections.singletonList(other));
+	}
+	
+	public OutputtingTask<Out> mergeWith(Collection<? extends OutputtingTask<? extends Out>> others) {
+		Preconditions.checkArgument(!others.isEmpty(), "Nothing to merge with");
+		
+		// The items are passed through unchanged
+		OutputtingStage<Out, Out> next = new OutputtingStage<>(getTask(), () -> Function.identity(), InstanceOptions.Single, false);
+		next.inputCount = others.size() + 1;
+		nextStages.add(next);
+		
+		for (OutputtingTask<? extends Out> other : others) {
+			Preconditions.checkArgument(other instanceof OutputtingStage, "Only tasks created by a Tasker can be merged");
+			Preconditions.checkArgument(other != this, "A task cannot be merged with itself");
+			
+			// The other stage only ever supplies items of the merged type
+			@SuppressWarnings("unchecked")
+			OutputtingStage<?, Out> otherStage = (OutputtingStage<?, Out>)other;
+			otherStage.nextStages.add(next);
+			getTask().merge(otherStage.getTask());
+		}
+		
+		return next;
+	}
+	
+	@Override
+	List<? extends Stage<?>> getNextStages() {
+		return nextStages;
+	}
+
 	public ListenableFuture<? extends Collection<Out>> execute() {
 		return execute(Collector.listCollector());
 	}
 
 	public <E extends Collection<? extends Out>> ListenableFuture<E> execute(Collector<Out, E> collector) {
-		Preconditions.checkState(nextStage == null, "A follow-up task has been supplied, this cannot be executed anymore");
-		ListenableFuture<Void> future = getTask().executeTask();
+		Preconditions.checkState(nextStages.isEmpty(), "A follow-up task has been supplied, this cannot be executed anymore");
+		ListenableFuture<Void> future = getTask().executeTask(this);
 		
 		OutputFuture<E> outputFuture = new OutputFuture<>(collector);
 		Futures.addCallback(future, outputFuture);
@@ -69,11 +175,51 @@ class OutputtingStage<In,Out> extends Stage<In> implements OutputtingTask<Out> {
 		return outputFuture;
 	}
 
+	public <R> ListenableFuture<R> aggregate(Aggregator<? super Out, ?, R> aggregator) {
+		Preconditions.checkState(nextStages.isEmpty(), "A follow-up task has been supplied, this cannot be executed anymore");
+		AggregateOutput<Out, ?, R> output = new AggregateOutput<>(aggregator);
+		aggregateOutput = output;
+		
+		ListenableFuture<Void> future = getTask().executeTask(this);
+		
+		return Futures.transform(future, (Void result) -> output.result);
+	}
+
+	public <R> R aggregateAndWait(Aggregator<? super Out, ?, R> aggregator) throws InterruptedException, ExecutionException {
+		getTask().checkStartsTask(this);
+		ListenableFuture<R> future = aggregate(aggregator);
+		
+		return future.get();
+	}
+
+	public Publisher<Out> toPublisher() {
+		return toPublisher(PublisherOutput.DEFAULT_BUFFER_SIZE);
+	}
+	
+	public Publisher<Out> toPublisher(int bufferSize) {
+		Preconditions.checkState(nextStages.isEmpty(), "A follow-up task has been supplied, this cannot be executed anymore");
+		PublisherOutput<Out> output = new PublisherOutput<>(() -> getTask().executeTask(this), bufferSize);
+		publisherOutput = output;
+		
+		return output;
+	}
+	
+	public SpeculativeTask<Out> speculative() {
+		speculative = true;
+		return this;
+	}
+	
+	public SpeculativeTask<Out> withGovernor(Governor governor) {
+		setGovernor(governor);
+		return this;
+	}
+	
 	public Collection<Out> executeAndWait() throws InterruptedException, ExecutionException {
 		return executeAndWait(Collector.listCollector());
 	}
 
 	public <E extends Collection<? extends Out>> E executeAndWait(Collector<Out, E> collector) throws InterruptedException, ExecutionException {
+		getTask().checkStartsTask(this);
 		ListenableFuture<E> future = execute(collector);
 		
 		return future.get();
@@ -81,7 +227,135 @@ class OutputtingStage<In,Out> extends Stage<In> implements OutputtingTask<Out> {
 	
 	
 	private Function<? super In, ? extends Out> sharedFunctionInstance;
-	private List<StageExecutor<In, Out>> createdExecutors;
+	private List<List<Out>> outputCaches;
+	// Used instead of the output caches in low footprint mode when there are stages that follow
+	private List<SegmentedBuffer<Out>> segmentedOutputs;
+	private List<StageExecutor<In, Out>> speculativeExecutors;
+	// Used instead of the output caches when the task is streamed
+	private List<FeedQueue<Out>> handoffs;
+	private ListenableFuture<Void> handoffFuture;
+	// Guarded by this, the inputs that have arrived for a merged stage
+	private List<Supplier<In>> mergedInputs;
+	private SettableFuture<Void> mergedFuture;
+	
+	@Override
+	public ListenableFuture<Void> executeStage(Supplier<In> supplier, ListeningExecutorService service, int threadCount) {
+		if (inputCount == 1) {
+			return executeInput(supplier, service, threadCount);
+		}
+		
+		// A merged stage starts once every stage before it has provided its input
+		List<Supplier<In>> inputs;
+		SettableFuture<Void> future;
+		synchronized (this) {
+			if (mergedInputs == null) {
+				mergedInputs = Lists.newArrayList();
+				mergedFuture = SettableFuture.create();
+			}
+			
+			mergedInputs.add(supplier);
+			future = mergedFuture;
+			if (mergedInputs.size() < inputCount) {
+				return future;
+			}
+			
+			inputs = mergedInputs;
+			mergedInputs = null;
+			mergedFuture = null;
+		}
+		
+		future.setFuture(executeInput(new MergedSupplier<>(inputs), service, threadCount));
+		return future;
+	}
+	
+	private ListenableFuture<Void> executeInput(Supplier<In> supplier, ListeningExecutorService service, int threadCount) {
+		if (nextStages.isEmpty() || !getTask().isStreaming()) {
+			return super.executeStage(supplier, service, threadCount);
+		}
+		
+		// The next stages run alongside this one and take each result as it is produced
+		List<FeedQueue<Out>> queues = Lists.newArrayList();
+		List<ListenableFuture<Void>> branches = Lists.newArrayList();
+		for (Stage<Out> nextStage : nextStages) {
+			FeedQueue<Out> queue = new FeedQueue<>(threadCount * FeedQueue.DEFAULT_CAPACITY_PER_THREAD);
+			queues.add(queue);
+			branches.add(nextStage.executeStage(queue, service, threadCount));
+		}
+		handoffs = queues;
+		
+		ListenableFuture<Void> next = combineBranches(branches);
+		handoffFuture = next;
+		
+		ListenableFuture<Void> own = super.executeStage(supplier, service, threadCount);
+		
+		SettableFuture<Void> result = SettableFuture.create();
+		Futures.addCallback(own, new FutureCallback<Void>() {
+			@Override
+			public void onSuccess(Void value) {
+				result.set(null);
+			}
+			
+			@Override
+			public void onFailure(Throwable t) {
+				next.cancel(true);
+				result.setException(t);
+			}
+		});
+		Futures.addCallback(next, new FutureCallback<Void>() {
+			@Override
+			public void onSuccess(Void value) {
+				// Nothing to do, this stage completes with it
+			}
+			
+			@Override
+			public void onFailure(Throwable t) {
+				// Results can no longer be handed off, and this stage may be waiting on input that will never end
+				for (FeedQueue<Out> queue : queues) {
+					queue.abort(t);
+				}
+				result.setException(t);
+				own.cancel(true);
+			}
+		});
+		
+		// Cancelling the stage stops both stages
+		result.addListener(() -> {
+			if (result.isCancelled()) {
+				own.cancel(true);
+			}
+		}, MoreExecutors.directExecutor());
+		
+		return result;
+	}
+	
+	/**
+	 * Combines the futures of the branches that follow this stage
+	 * @return A future that completes once every branch is complete, or as soon as any of them fails
+	 */
+	private static ListenableFuture<Void> combineBranches(List<ListenableFuture<Void>> branches) {
+		if (branches.size() == 1) {
+			return branches.get(0);
+		}
+		
+		ListenableFuture<List<Void>> all = Futures.allAsList(branches);
+		
+		// A branch that fails stops the others as the task has failed
+		Futures.addCallback(all, new FutureCallback<List<Void>>() {
+			@Override
+			public void onSuccess(List<Void> results) {
+				// Nothing to do
+			}
+			
+			@Override
+			public void onFailure(Throwable t) {
+				for (ListenableFuture<Void> branch : branches) {
+					branch.cancel(true);
+				}
+			}
+		});
+		
+		return Futures.transform(all, (List<Void> results) -> (Void)null);
+	}
 	
 	@Override
 	protected void preExecute() {
@@ -89,38 +363,149 @@ class OutputtingStage<In,Out> extends Stage<In> implements OutputtingTask<Out> {
 			sharedFunctionInstance = functionSupplier.get();
 		}
 		
-		createdExecutors = Lists.newArrayList();
+		outputCaches = Lists.newArrayList();
+		if (getTask().isLowFootprint() && !nextStages.isEmpty()) {
+			segmentedOutputs = Lists.newArrayList();
+		}
+		// Executors look through the others while the rest are still being created
+		speculativeExecutors = new CopyOnWriteArrayList<>();
 	}
 	
 	@Override
-	protected Runnable createExecutor(Supplier<In> supplier) {
-		StageExecutor<In,Out> executor;
+	protected StageWorker createExecutor(Supplier<In> supplier) {
+		return createWorker(supplier, createOutput());
+	}
+	
+	/**
+	 * Creates the worker that applies the function to each input and passes the result to the output
+	 * @param supplier The input supplier
+	 * @param output Where the results go. {@link OutputSink#complete()} must be called once the input is exhausted
+	 */
+	StageWorker createWorker(Supplier<In> supplier, OutputSink<Out> output) {
+		StageExecutor<In, Out> executor;
 		if (supplierOptions == InstanceOptions.Single) {
-			executor = new StageExecutor<>(this, supplier, sharedFunctionInstance);
+			executor = new StageExecutor<>(this, supplier, output, sharedFunctionInstance);
 		} else {
-			executor = new StageExecutor<>(this, supplier);
+			executor = new StageExecutor<>(this, supplier, output);
+		}
+		
+		if (speculative) {
+			speculativeExecutors.add(executor);
 		}
 		
-		createdExecutors.add(executor);
 		return executor;
 	}
 	
-	@SuppressWarnings("unchecked")
+	/**
+	 * Gets how long an item must have been running before it is copied.
+	 * This is a multiple of the average time of the items that have finished so far
+	 * @return The time in nanoseconds
+	 */
+	private long getStragglerThreshold() {
+		long items = 0;
+		long nanos = 0;
+		for (StageExecutor<In, Out> executor : speculativeExecutors) {
+			items += executor.completedItems;
+			nanos += executor.completedNanos;
+		}
+		
+		long average = (items == 0 ? 0 : nanos / items);
+		return Math.max(MIN_STRAGGLER_NANOS, average * STRAGGLER_FACTOR);
+	}
+	
+	private OutputSink<Out> createOutput() {
+		if (handoffs != null) {
+			return new HandoffSink<>(handoffs);
+		} else if (aggregateOutput != null) {
+			return aggregateOutput.createAccumulator();
+		} else if (publisherOutput != null) {
+			return publisherOutput;
+		} else if (segmentedOutputs != null) {
+			SegmentedBuffer<Out> buffer = new SegmentedBuffer<>();
+			segmentedOutputs.add(buffer);
+			return buffer::accept;
+		} else {
+			List<Out> outputCache = Lists.newArrayList();
+			outputCaches.add(outputCache);
+			return outputCache::add;
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
 	private List<Out>[] retrieveResults() {
-		List<Out>[] results = new List[createdExecutors.size()];
-		for (int i = 0; i < createdExecutors.size(); ++i) {
-			results[i] = createdExecutors.get(i).outputCache;
+		return outputCaches.toArray(new List[outputCaches.size()]);
+	}
+	
+	/**
+	 * Creates a supplier of the results for each stage that follows.
+	 * Every branch reads the same results, each with its own position
+	 */
+	private List<Supplier<Out>> createNextSuppliers() {
+		List<Supplier<Out>> suppliers = Lists.newArrayList();
+		if (segmentedOutputs != null) {
+			List<SegmentedBuffer.Segment> chains = Lists.newArrayList();
+			for (SegmentedBuffer<Out> buffer : segmentedOutputs) {
+				chains.add(buffer.release());
+			}
+			
+			// Items can only be cleared as they are read when nothing else will read them
+			boolean clearItems = (nextStages.size() == 1);
+			for (int i = 0; i < nextStages.size(); ++i) {
+				suppliers.add(new SegmentSupplier<>(chains, clearItems));
+			}
+		} else {
+			List<Out>[] results = retrieveResults();
+			for (int i = 0; i < nextStages.size(); ++i) {
+				suppliers.add(new IntermediateSupplier<>(results.clone()));
+			}
 		}
 		
-		return results;
+		return suppliers;
+	}
+	
+	@Override
+	protected void cleanup() {
+		if (supplierOptions == InstanceOptions.Single) {
+			try {
+				if (closeSharedInstance) {
+					closeInstance(sharedFunctionInstance);
+				}
+			} finally {
+				sharedFunctionInstance = null;
+			}
+		}
 	}
 	
 	@Override
-	protected void postExecute(ListeningExecutorService service, int threadCount) throws ExecutionException, InterruptedException {
-		if (nextStage != null) {
-			Supplier<Out> nextSupplier = new IntermediateSupplier<>(retrieveResults());
+	protected ListenableFuture<Void> postExecute(ListeningExecutorService service, int threadCount) {
+		if (handoffs != null) {
+			// The next stages finish once they have taken every result
+			for (FeedQueue<Out> queue : handoffs) {
+				queue.close();
+			}
+			return handoffFuture;
+		} else if (!nextStages.isEmpty()) {
+			List<Supplier<Out>> suppliers = createNextSuppliers();
 			
-			nextStage.executeStage(nextSupplier, service, threadCount);
+			// The results are only held by the suppliers from here on
+			outputCaches = null;
+			segmentedOutputs = null;
+			
+			List<ListenableFuture<Void>> branches = Lists.newArrayList();
+			for (int i = 0; i < nextStages.size(); ++i) {
+				branches.add(nextStages.get(i).executeStage(suppliers.get(i), service, threadCount));
+			}
+			
+			return combineBranches(branches);
+		} else if (aggregateOutput != null) {
+			long traceBegin = getTracer().begin();
+			
+			// Combine while the service is still available to us
+			ListenableFuture<Void> combined = aggregateOutput.combine(service);
+			combined.addListener(() -> getTracer().endStage("aggregator", "Combine", traceBegin), MoreExecutors.directExecutor());
+			return combined;
+		} else {
+			return Futures.immediateFuture(null);
 		}
 	}
 	
@@ -132,58 +517,224 @@ class OutputtingStage<In,Out> extends Stage<In> implements OutputtingTask<Out> {
 	 * @param <In> The input type
 	 * @param <Out> The output type
 	 */
-	private static class StageExecutor<In, Out> implements Runnable {
+	private static class StageExecutor<In, Out> implements StageWorker {
 		private final OutputtingStage<In, Out> stage;
 		
 		private final Supplier<In> inputSupplier;
-		private final List<Out> outputCache;
+		private final OutputSink<Out> output;
 		
 		private Function<? super In, ? extends Out> functionInstance;
+		private long itemCount;
+		private boolean inputExhausted;
 		
-		public StageExecutor(OutputtingStage<In, Out> stage, Supplier<In> inputSupplier) {
+		// Only used by speculative stages
+		private volatile InFlight<In> current;
+		private volatile long completedItems;
+		private volatile long completedNanos;
+		
+		public StageExecutor(OutputtingStage<In, Out> stage, Supplier<In> inputSupplier, OutputSink<Out> output) {
 			Preconditions.checkNotNull(stage);
 			Preconditions.checkNotNull(inputSupplier);
+			Preconditions.checkNotNull(output);
 			Preconditions.checkState(stage.supplierOptions != InstanceOptions.Single);
 			
 			this.stage = stage;
 			this.inputSupplier = inputSupplier;
-			
-			outputCache = Lists.newArrayList();
-			
-			if (stage.supplierOptions == InstanceOptions.PerThread) {
-				functionInstance = stage.functionSupplier.get();
-			}
+			this.output = output;
 		}
 		
-		public StageExecutor(OutputtingStage<In, Out> stage, Supplier<In> inputSupplier, Function<? super In, ? extends Out> functionInstance) {
+		public StageExecutor(OutputtingStage<In, Out> stage, Supplier<In> inputSupplier, OutputSink<Out> output, Function<? super In, ? extends Out> functionInstance) {
 			Preconditions.checkNotNull(stage);
 			Preconditions.checkNotNull(inputSupplier);
+			Preconditions.checkNotNull(output);
 			Preconditions.checkState(stage.supplierOptions == InstanceOptions.Single);
 			Preconditions.checkNotNull(functionInstance);
 			
 			this.stage = stage;
 			this.inputSupplier = inputSupplier;
+			this.output = output;
 			this.functionInstance = functionInstance;
-			
-			outputCache = Lists.newArrayList();
 		}
 		
 		@Override
-		public void run() {
-			while (true) {
+		public boolean process(int maxItems) {
+			// Per thread instances are created by the thread that uses them so they are created in parallel
+			if (stage.supplierOptions == InstanceOptions.PerThread && functionInstance == null) {
+				functionInstance = stage.functionSupplier.get();
+			}
+			
+			boolean chunked = (maxItems != Integer.MAX_VALUE);
+			if (inputExhausted) {
+				return speculate(chunked);
+			}
+			
+			Tracer tracer = stage.getTracer();
+			for (int i = 0; i < maxItems; ++i) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new CancellationException("The stage was cancelled");
+				}
+				
+				boolean traced = tracer.sampleItem(++itemCount);
+				
 				// Next object to process
+				long waitBegin = (traced ? tracer.begin() : Tracer.NOT_TRACED);
 				In input = inputSupplier.get();
+				tracer.end("supplier", "Wait for input", waitBegin);
 				if (input == null) {
-					return;
+					inputExhausted = true;
+					
+					// Idle executors help with items that are taking much longer than the rest
+					if (stage.speculative) {
+						return speculate(chunked);
+					}
+					
+					output.complete();
+					return false;
+				}
+				
+				long itemBegin = (traced ? tracer.begin() : Tracer.NOT_TRACED);
+				
+				Out result;
+				if (stage.speculative) {
+					InFlight<In> item = new InFlight<>(input);
+					current = item;
+					try {
+						result = apply(input);
+					} catch (Throwable e) {
+						current = null;
+						if (item.finish()) {
+							throw e;
+						}
+						
+						// The copy finished first so this failure is not needed
+						item.lost();
+						continue;
+					}
+					current = null;
+					
+					if (!item.finish()) {
+						item.lost();
+						continue;
+					}
+					
+					completedNanos += System.nanoTime() - item.start;
+					completedItems = completedItems + 1;
+				} else {
+					result = apply(input);
 				}
 				
+				output.accept(result);
+				tracer.end("item", "Item", itemBegin);
+			}
+			
+			return true;
+		}
+		
+		private Out apply(In input) {
+			long permit = stage.acquirePermit(1);
+			boolean failed = true;
+			try {
+				Out result;
 				// Retrieve the per task instance if needed
 				if (stage.supplierOptions == InstanceOptions.PerTask) {
-					functionInstance = stage.functionSupplier.get();
+					Function<? super In, ? extends Out> instance = stage.functionSupplier.get();
+					try {
+						result = instance.apply(input);
+					} finally {
+						closeInstance(instance);
+					}
+				} else {
+					result = functionInstance.apply(input);
 				}
 				
-				Out result = functionInstance.apply(input);
-				outputCache.add(result);
+				failed = false;
+				return result;
+			} finally {
+				stage.releasePermit(permit, failed);
+			}
+		}
+		
+		/**
+		 * Runs copies of items that other executors have been running for much longer than is typical,
+		 * until no other executor is running an item that could still be copied
+		 * @param chunked True if the executor should give up its thread rather than wait
+		 * @return True if the executor should be run again
+		 */
+		private boolean speculate(boolean chunked) {
+			while (true) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new CancellationException("The stage was cancelled");
+				}
+				
+				long now = System.nanoTime();
+				long threshold = stage.getStragglerThreshold();
+				long nextCheck = Long.MAX_VALUE;
+				InFlight<In> straggler = null;
+				
+				for (StageExecutor<In, Out> executor : stage.speculativeExecutors) {
+					InFlight<In> item = executor.current;
+					if (executor == this || item == null || item.isClaimed()) {
+						continue;
+					}
+					
+					long elapsed = now - item.start;
+					if (elapsed < threshold) {
+						nextCheck = Math.min(nextCheck, threshold - elapsed);
+					} else if (item.claim()) {
+						straggler = item;
+						break;
+					}
+				}
+				
+				if (straggler != null) {
+					runCopy(straggler);
+				} else if (nextCheck == Long.MAX_VALUE) {
+					// Nothing left that could be copied
+					output.complete();
+					return false;
+				} else if (chunked) {
+					return true;
+				} else {
+					LockSupport.parkNanos(Math.min(nextCheck, MAX_SPECULATION_WAIT_NANOS));
+				}
+			}
+		}
+		
+		private void runCopy(InFlight<In> item) {
+			// The original may have finished after this was claimed, and may have interrupted this thread
+			if (item.isFinished()) {
+				item.lost();
+				return;
+			}
+			
+			Out result;
+			try {
+				result = apply(item.input);
+			} catch (Throwable e) {
+				if (item.finish()) {
+					throw e;
+				}
+				
+				item.lost();
+				return;
+			}
+			
+			if (item.finish()) {
+				output.accept(result);
+			} else {
+				item.lost();
+			}
+		}
+		
+		@Override
+		public void close() {
+			// Shared instances are closed by the stage
+			if (stage.supplierOptions == InstanceOptions.PerThread) {
+				try {
+					closeInstance(functionInstance);
+				} finally {
+					functionInstance = null;
+				}
 			}
 		}
 	}
@@ -199,10 +750,22 @@ class OutputtingStage<In,Out> extends Stage<In> implements OutputtingTask<Out> {
 		public void onSuccess(Void result) {
 			List<Out>[] results = retrieveResults();
 			
+			long traceBegin = getTracer().begin();
+			E collected = null;
+			Throwable failure = null;
 			try {
-				set(collector.collect(results));
+				collected = collector.collect(results);
 			} catch (Throwable e) {
-				setException(e);
+				failure = e;
+			} finally {
+				// Ended before the future completes so the span is recorded once the caller sees the result
+				getTracer().end("collector", "Collect", traceBegin);
+			}
+			
+			if (failure != null) {
+				setException(failure);
+			} else {
+				set(collected);
 			}
 		}
 
@@ -218,4 +781,369 @@ class OutputtingStage<In,Out> extends Stage<In> implements OutputtingTask<Out> {
 		}
 		
 	}
+	
+	/**
+	 * Receives the results of a single executor
+	 * @param <Out> The output type
+	 */
+	interface OutputSink<Out> extends Consumer<Out> {
+		/**
+		 * Called by the executor once it has no more input
+		 */
+		default void complete() {
+			// Nothing to do
+		}
+	}
+	
+	/**
+	 * An item being run by a speculative stage. It may be run a second time by an idle
+	 * executor, in which case whichever run finishes first is kept and the other is interrupted.
+	 * @author schmoller
+	 *
+	 * @param <In> The input type
+	 */
+	private static class InFlight<In> {
+		private final In input;
+		private final Thread owner;
+		private final long start;
+		
+		private final AtomicReference<Thread> copyThread;
+		private final AtomicBoolean finished;
+		// The thread that was interrupted when the item finished, if any
+		private Thread loser;
+		private volatile boolean loserInterrupted;
+		
+		public InFlight(In input) {
+			this.input = input;
+			owner = Thread.currentThread();
+			start = System.nanoTime();
+			
+			copyThread = new AtomicReference<>();
+			finished = new AtomicBoolean();
+		}
+		
+		/**
+		 * Claims the item so that only one copy is ever run
+		 * @return True if the current thread should run the copy
+		 */
+		public boolean claim() {
+			return copyThread.compareAndSet(null, Thread.currentThread());
+		}
+		
+		public boolean isClaimed() {
+			return copyThread.get() != null;
+		}
+		
+		public boolean isFinished() {
+			return finished.get();
+		}
+		
+		/**
+		 * Marks the item as finished by the current thread and interrupts the other run
+		 * @return True if the current thread finished first and its result should be kept
+		 */
+		public boolean finish() {
+			if (!finished.compareAndSet(false, true)) {
+				return false;
+			}
+			
+			// A copy claimed after this point is not interrupted, it sees that the item is finished before running it
+			Thread other = (Thread.currentThread() == owner ? copyThread.get() : owner);
+			if (other != null) {
+				other.interrupt();
+			}
+			
+			loser = other;
+			loserInterrupted = true;
+			return true;
+		}
+		
+		/**
+		 * Called by the run that finished second, or by a copy that found the item already finished.
+		 * Any interrupt meant for it is cleared so that it does not cancel the next item
+		 */
+		public void lost() {
+			while (!loserInterrupted) {
+				Thread.yield();
+			}
+			
+			if (loser == Thread.currentThread()) {
+				Thread.interrupted();
+			}
+		}
+	}
+	
+	/**
+	 * Hands each result to every stage that follows, waiting while any of them is behind
+	 * @author schmoller
+	 *
+	 * @param <Out> The output type
+	 */
+	private static class HandoffSink<Out> implements OutputSink<Out> {
+		private final List<FeedQueue<Out>> queues;
+		
+		public HandoffSink(List<FeedQueue<Out>> queues) {
+			this.queues = queues;
+		}
+		
+		@Override
+		public void accept(Out result) {
+			try {
+				for (FeedQueue<Out> queue : queues) {
+					queue.offer(result);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("The stage was cancelled");
+			}
+		}
+	}
+	
+	/**
+	 * Holds the per-thread containers of an aggregator
+	 * @author schmoller
+	 *
+	 * @param <Out> The output type
+	 * @param <A> The container type
+	 * @param <R> The result type
+	 */
+	private static class AggregateOutput<Out, A, R> {
+		private final Aggregator<? super Out, A, R> aggregator;
+		private final List<A> containers;
+		
+		private R result;
+		
+		public AggregateOutput(Aggregator<? super Out, A, R> aggregator) {
+			Preconditions.checkNotNull(aggregator);
+			
+			this.aggregator = aggregator;
+			containers = Collections.synchronizedList(Lists.newArrayList());
+		}
+		
+		public OutputSink<Out> createAccumulator() {
+			A container = aggregator.createContainer();
+			containers.add(container);
+			
+			return new OutputSink<Out>() {
+				@Override
+				public void accept(Out element) {
+					aggregator.accumulate(container, element);
+				}
+				
+				@Override
+				public void complete() {
+					aggregator.complete(container);
+				}
+			};
+		}
+		
+		public ListenableFuture<Void> combine(ListeningExecutorService service) {
+			return Futures.transformAsync(aggregator.combine(containers, service), combined -> {
+				result = combined;
+				return Futures.immediateFuture(null);
+			});
+		}
+	}
+	
+	/**
+	 * Publishes the results of the executors as they are produced.
+	 * Executors place results into a bounded buffer and wait while it is full.
+	 * Results are delivered from the buffer only when the subscriber has
+	 * requested them, by whichever thread made them available.
+	 * @author schmoller
+	 *
+	 * @param <Out> The output type
+	 */
+	private static class PublisherOutput<Out> implements Publisher<Out>, Subscription, OutputSink<Out> {
+		static final int DEFAULT_BUFFER_SIZE = 256;
+		
+		private final Supplier<ListenableFuture<Void>> execution;
+		private final ArrayBlockingQueue<Out> buffer;
+		
+		private final AtomicBoolean subscribed;
+		private final AtomicLong requested;
+		private final AtomicInteger drainCount;
+		
+		private volatile Subscriber<? super Out> subscriber;
+		private volatile ListenableFuture<Void> taskFuture;
+		private volatile boolean cancelled;
+		private volatile boolean done;
+		private volatile Throwable error;
+		
+		// Only accessed by the draining thread
+		private boolean terminated;
+		
+		public PublisherOutput(Supplier<ListenableFuture<Void>> execution, int bufferSize) {
+			Preconditions.checkArgument(bufferSize > 0, "Buffer size cannot be less than 1");
+			
+			this.execution = execution;
+			buffer = new ArrayBlockingQueue<>(bufferSize);
+			
+			subscribed = new AtomicBoolean();
+			requested = new AtomicLong();
+			drainCount = new AtomicInteger();
+		}
+		
+		@Override
+		public void subscribe(Subscriber<? super Out> subscriber) {
+			Preconditions.checkNotNull(subscriber);
+			
+			if (!subscribed.compareAndSet(false, true)) {
+				subscriber.onSubscribe(new Subscription() {
+					@Override
+					public void request(long count) {}
+					
+					@Override
+					public void cancel() {}
+				});
+				subscriber.onError(new IllegalStateException("Only a single subscriber is allowed"));
+				return;
+			}
+			
+			this.subscriber = subscriber;
+			subscriber.onSubscribe(this);
+			
+			if (cancelled) {
+				return;
+			}
+			
+			ListenableFuture<Void> future = execution.get();
+			taskFuture = future;
+			
+			Futures.addCallback(future, new FutureCallback<Void>() {
+				@Override
+				public void onSuccess(Void result) {
+					done = true;
+					drain();
+				}
+				
+				@Override
+				public void onFailure(Throwable t) {
+					// An invalid request may have already failed the subscription
+					if (error == null) {
+						error = t;
+					}
+					done = true;
+					drain();
+				}
+			});
+			
+			// The subscription may have been cancelled before the future was available
+			if (cancelled) {
+				future.cancel(true);
+			}
+		}
+		
+		@Override
+		public void request(long count) {
+			if (count <= 0) {
+				error = new IllegalArgumentException("Request count must be greater than 0");
+				done = true;
+				cancelTask();
+			} else {
+				// Demand that overflows is treated as unbounded
+				requested.getAndUpdate(current -> {
+					long total = current + count;
+					return (total < 0 ? Long.MAX_VALUE : total);
+				});
+			}
+			
+			drain();
+		}
+		
+		@Override
+		public void cancel() {
+			cancelled = true;
+			cancelTask();
+			drain();
+		}
+		
+		private void cancelTask() {
+			ListenableFuture<Void> future = taskFuture;
+			if (future != null) {
+				future.cancel(true);
+			}
+		}
+		
+		@Override
+		public void accept(Out result) {
+			Preconditions.checkNotNull(result, "Results cannot be null when published");
+			
+			try {
+				buffer.put(result);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted while waiting for demand");
+			}
+			
+			drain();
+		}
+		
+		/**
+		 * Delivers as many results as have been requested. Only one thread
+		 * delivers at a time, any other thread calling this while it is
+		 * delivering causes it to check again before it stops.
+		 */
+		private void drain() {
+			if (drainCount.getAndIncrement() != 0) {
+				return;
+			}
+			
+			int missed = 1;
+			do {
+				if (terminated) {
+					return;
+				}
+				
+				long demand = requested.get();
+				long emitted = 0;
+				
+				while (true) {
+					if (cancelled) {
+						terminated = true;
+						buffer.clear();
+						return;
+					}
+					
+					// Read done before polling, anything put before done was set will be polled
+					boolean finished = done;
+					Throwable failure = error;
+					if (finished && failure != null) {
+						terminated = true;
+						buffer.clear();
+						subscriber.onError(failure);
+						return;
+					}
+					
+					if (emitted == demand) {
+						if (finished && buffer.isEmpty()) {
+							terminated = true;
+							subscriber.onComplete();
+							return;
+						}
+						break;
+					}
+					
+					Out result = buffer.poll();
+					if (result == null) {
+						if (finished) {
+							terminated = true;
+							subscriber.onComplete();
+							return;
+						}
+						break;
+					}
+					
+					subscriber.onNext(result);
+					++emitted;
+				}
+				
+				if (emitted != 0 && demand != Long.MAX_VALUE) {
+					requested.addAndGet(-emitted);
+				}
+				
+				missed = drainCount.addAndGet(-missed);
+			} while (missed != 0);
+		}
+	}
 }
@@ -3,6 +3,8 @@ package tasker;
 import java.util.Collection;
 import java.util.concurrent.ExecutionException;
 
+import org.reactivestreams.Publisher;
+
 import com.google.common.util.concurrent.ListenableFuture;
 
 /**
@@ -16,6 +18,8 @@ public interface OutputtingTask<T> extends ItemTasker<T> {
 	/**
 	 * Executes the tasks according to the applied settings and
 	 * gives back a ListenableFuture.
+	 * When the task has several branches it only starts once every branch has been executed,
+	 * and each future completes once its own branch is finished.
 	 * @return A ListenableFuture that returns the aggregate results from all executions
 	 */
 	ListenableFuture<? extends Collection<T>> execute();
@@ -23,6 +27,8 @@ public interface OutputtingTask<T> extends ItemTasker<T> {
 	/**
 	 * Executes the tasks according to the applied settings and
 	 * gives back a ListenableFuture.
+	 * When the task has several branches it only starts once every branch has been executed,
+	 * and each future completes once its own branch is finished.
 	 * @param collector A collector that defines how to package up the results
 	 * @return A ListenableFuture that returns the aggregate results from all executions
 	 *         according to the result of the collector
@@ -31,17 +37,91 @@ public interface OutputtingTask<T> extends ItemTasker<T> {
 	
 	/**
 	 * Executes the tasks according to the applied settings and
-	 * waits until it is complete.
+	 * waits until it is complete. This must be the last branch of the task to be executed.
 	 * @return The aggregate results from all executions
+	 * @throws IllegalStateException Thrown if another branch of the task has not been executed yet,
+	 *         as the task would never start. Execute the other branches first or use execute()
 	 */
 	Collection<T> executeAndWait() throws InterruptedException, ExecutionException;
 	
 	/**
 	 * Executes the tasks according to the applied settings and
-	 * waits until it is complete.
+	 * waits until it is complete. This must be the last branch of the task to be executed.
 	 * @param collector A collector that defines how to package up the results
 	 * @return The aggregate results from all executions according to the result of 
 	 *         the collector
+	 * @throws IllegalStateException Thrown if another branch of the task has not been executed yet,
+	 *         as the task would never start. Execute the other branches first or use execute()
 	 */
 	<E extends Collection<? extends T>> E executeAndWait(Collector<T, E> collector) throws InterruptedException, ExecutionException;
+	
+	/**
+	 * Executes the tasks according to the applied settings and
+	 * gives back a ListenableFuture. Results are aggregated by each thread
+	 * as they are produced rather than once all executions are complete.
+	 * @param aggregator An aggregator that defines how to combine the results
+	 * @return A ListenableFuture that returns the result of the aggregator
+	 */
+	<R> ListenableFuture<R> aggregate(Aggregator<? super T, ?, R> aggregator);
+	
+	/**
+	 * Executes the tasks according to the applied settings and
+	 * waits until it is complete. Results are aggregated by each thread
+	 * as they are produced rather than once all executions are complete.
+	 * This must be the last branch of the task to be executed.
+	 * @param aggregator An aggregator that defines how to combine the results
+	 * @return The result of the aggregator
+	 * @throws IllegalStateException Thrown if another branch of the task has not been executed yet,
+	 *         as the task would never start. Execute the other branches first or use execute()
+	 */
+	<R> R aggregateAndWait(Aggregator<? super T, ?, R> aggregator) throws InterruptedException, ExecutionException;
+	
+	/**
+	 * Gets a reactive streams publisher of the results. The task is executed
+	 * when the publisher is subscribed to and results are delivered as they are
+	 * produced. Executors wait once a small buffer of results is waiting for demand,
+	 * so the subscriber controls how fast the task runs. Cancelling the subscription
+	 * cancels the task. Only a single subscriber is allowed and results may not be null.
+	 * @return The publisher of the results
+	 */
+	Publisher<T> toPublisher();
+	
+	/**
+	 * Gets a reactive streams publisher of the results. The task is executed
+	 * when the publisher is subscribed to and results are delivered as they are
+	 * produced. Cancelling the subscription cancels the task. 
+	 * Only a single subscriber is allowed and results may not be null.
+	 * @param bufferSize The number of results that may wait for demand before the executors wait
+	 * @return The publisher of the results
+	 */
+	Publisher<T> toPublisher(int bufferSize);
+	
+	/**
+	 * Makes each item wait on a governor before the function is applied to it, limiting
+	 * the rate or the number of items in progress at once. Remote functions wait once for
+	 * each chunk of items. An item waiting on the governor holds its thread, even when the
+	 * task runs on a {@link TaskScheduler}, so a tight limit also slows the other tasks
+	 * sharing the scheduler.
+	 * @param governor The governor. This may be shared with other stages
+	 * @return this for chaining
+	 */
+	OutputtingTask<T> withGovernor(Governor governor);
+	
+	/**
+	 * Merges the results of another task into the results of this one. The other task may be
+	 * another branch of the same task or a separate task, which is then run along with this one.
+	 * The merged stage starts once both have finished.
+	 * @param other The task whose results are merged
+	 * @return Task settings object for the merged results.
+	 */
+	OutputtingTask<T> mergeWith(OutputtingTask<? extends T> other);
+	
+	/**
+	 * Merges the results of several other tasks into the results of this one. The other tasks may be
+	 * other branches of the same task or separate tasks, which are then run along with this one.
+	 * The merged stage starts once all of them have finished.
+	 * @param others The tasks whose results are merged
+	 * @return Task settings object for the merged results.
+	 */
+	OutputtingTask<T> mergeWith(Collection<? extends OutputtingTask<? extends T>> others);
 }
@@ -0,0 +1,20 @@
+package tasker;
+
+import java.util.function.Supplier;
+
+/**
+ * A supplier that can give each executor of a stage its own reader.
+ * Each reader keeps its own read position so that it does not depend on
+ * which thread it is used from, as an executor may move between threads.
+ * @author schmoller
+ *
+ * @param <T> The item type
+ */
+interface PartitionedSupplier<T> extends Supplier<T> {
+	/**
+	 * Creates a reader that shares the remaining items with every other reader.
+	 * Items are supplied by exactly one reader, or by {@link #get()}
+	 * @return A new reader. This is NOT thread-safe
+	 */
+	Supplier<T> createReader();
+}
@@ -0,0 +1,22 @@
+package tasker;
+
+/**
+ * The priority class of a task running on a {@link TaskScheduler}.
+ * Work from a higher class is always run before work from a lower class.
+ * @author schmoller
+ */
+public enum Priority {
+	/**
+	 * Latency sensitive tasks. These run ahead of all other work.
+	 */
+	Interactive,
+	/**
+	 * Regular tasks.
+	 */
+	Normal,
+	/**
+	 * Throughput oriented tasks. These only use capacity that
+	 * is not needed by any other class.
+	 */
+	Batch
+}
@@ -0,0 +1,341 @@
+package tasker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * A set of worker processes that stage functions can be run in.
+ * This allows a task to use more memory than a single heap allows, and keeps
+ * the garbage of the stage functions out of the process running the task.
+ * Items and results are sent to the workers in chunks, so both must be {@link java.io.Serializable}.
+ * If a worker process fails, or takes longer than the read timeout to answer,
+ * the chunk it was processing is retried on another worker.
+ * @author schmoller
+ * @see ItemTasker#intoRemoteFunction(ProcessPool, SerializableSupplier)
+ */
+public class ProcessPool {
+	/**
+	 * The number of items sent to a worker at once
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 256;
+	
+	private static final int CONNECT_TIMEOUT = (int)TimeUnit.SECONDS.toMillis(10);
+	private static final int DEFAULT_READ_TIMEOUT = (int)TimeUnit.MINUTES.toMillis(5);
+	private static final int TOKEN_BYTES = 32;
+	
+	private final List<InetSocketAddress> addresses;
+	private final List<Process> processes;
+	private final int chunkSize;
+	private final String token;
+	private final AtomicInteger nextAddress;
+	private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+	
+	/**
+	 * Forks worker processes on this host using the same java installation and classpath
+	 * @param processCount The number of processes to fork
+	 * @throws IOException Thrown if a process cannot be started
+	 */
+	public ProcessPool(int processCount) throws IOException {
+		this(processCount, Collections.emptyList(), DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Forks worker processes on this host using the same java installation and classpath
+	 * @param processCount The number of processes to fork
+	 * @param jvmOptions Options to start each process with, such as the heap size
+	 * @param chunkSize The number of items sent to a worker at once. Larger chunks reduce the overhead of each
+	 *                  item at the expense of more work being retried when a worker fails
+	 * @throws IOException Thrown if a process cannot be started
+	 */
+	public ProcessPool(int processCount, List<String> jvmOptions, int chunkSize) throws IOException {
+		Preconditions.checkArgument(processCount > 0, "Process count cannot be less than 1");
+		Preconditions.checkArgument(chunkSize > 0, "Chunk size cannot be less than 1");
+		Preconditions.checkNotNull(jvmOptions);
+		
+		this.chunkSize = chunkSize;
+		nextAddress = new AtomicInteger();
+		
+		// Only this pool can connect to the workers it forks
+		byte[] tokenBytes = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(tokenBytes);
+		token = Base64.getUrlEncoder().encodeToString(tokenBytes);
+		
+		List<String> command = Lists.newArrayList();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(jvmOptions);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(WorkerProcess.class.getName());
+		command.add("0");
+		command.add(WorkerProcess.FORKED_OPTION);
+		
+		List<Process> started = Lists.newArrayList();
+		List<InetSocketAddress> found = Lists.newArrayList();
+		try {
+			for (int i = 0; i < processCount; ++i) {
+				ProcessBuilder builder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT);
+				// Passed in the environment as the command line of a process can be seen by anyone
+				builder.environment().put(WorkerProcess.TOKEN_VARIABLE, token);
+				started.add(builder.start());
+			}
+			
+			for (Process process : started) {
+				found.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), readPort(process)));
+			}
+		} catch (IOException | RuntimeException e) {
+			for (Process process : started) {
+				process.destroy();
+			}
+			throw e;
+		}
+		
+		processes = ImmutableList.copyOf(started);
+		addresses = ImmutableList.copyOf(found);
+	}
+	
+	private ProcessPool(Collection<InetSocketAddress> addresses, int chunkSize, String token) {
+		Preconditions.checkArgument(!addresses.isEmpty(), "At least one address is required");
+		Preconditions.checkArgument(chunkSize > 0, "Chunk size cannot be less than 1");
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(token), "A token is required");
+		
+		this.addresses = ImmutableList.copyOf(addresses);
+		this.chunkSize = chunkSize;
+		this.token = token;
+		processes = Collections.emptyList();
+		nextAddress = new AtomicInteger();
+	}
+	
+	/**
+	 * Uses worker processes that have already been started
+	 * @param addresses The addresses the {@link WorkerProcess}es are listening on
+	 * @param token The token each worker was started with in {@value WorkerProcess#TOKEN_VARIABLE}
+	 * @return The pool
+	 */
+	public static ProcessPool connect(Collection<InetSocketAddress> addresses, String token) {
+		return new ProcessPool(addresses, DEFAULT_CHUNK_SIZE, token);
+	}
+	
+	/**
+	 * Uses worker processes that have already been started
+	 * @param addresses The addresses the {@link WorkerProcess}es are listening on
+	 * @param chunkSize The number of items sent to a worker at once
+	 * @param token The token each worker was started with in {@value WorkerProcess#TOKEN_VARIABLE}
+	 * @return The pool
+	 */
+	public static ProcessPool connect(Collection<InetSocketAddress> addresses, int chunkSize, String token) {
+		return new ProcessPool(addresses, chunkSize, token);
+	}
+	
+	/**
+	 * Sets how long a worker may take to answer before it is treated as failed and
+	 * the chunk is retried on another worker. This is 5 minutes by default.
+	 * @param timeout The longest time to wait for a chunk, which must allow for the slowest chunk
+	 * @param unit The unit of the timeout
+	 * @return this for chaining
+	 */
+	public ProcessPool withReadTimeout(long timeout, TimeUnit unit) {
+		Preconditions.checkArgument(timeout > 0, "Timeout must be greater than 0");
+		
+		readTimeout = (int)Math.min(Integer.MAX_VALUE, unit.toMillis(timeout));
+		return this;
+	}
+	
+	private static int readPort(Process process) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith(WorkerProcess.PORT_PREFIX)) {
+				return Integer.parseInt(line.substring(WorkerProcess.PORT_PREFIX.length()));
+			}
+		}
+		
+		throw new IOException("Worker process exited before it was ready");
+	}
+	
+	/**
+	 * Stops the worker processes that were forked by this pool.
+	 * Workers that were connected to are left running.
+	 */
+	public void shutdown() {
+		for (Process process : processes) {
+			try {
+				// Forked workers exit once their input is closed
+				process.getOutputStream().close();
+			} catch (IOException e) {
+				process.destroy();
+			}
+		}
+		
+		for (Process process : processes) {
+			try {
+				if (!process.waitFor(5, TimeUnit.SECONDS)) {
+					process.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	int getChunkSize() {
+		return chunkSize;
+	}
+	
+	List<InetSocketAddress> getAddresses() {
+		return addresses;
+	}
+	
+	/**
+	 * @return The number of times a chunk is attempted before failing
+	 */
+	int getAttemptLimit() {
+		return addresses.size() + 1;
+	}
+	
+	/**
+	 * Opens a connection to the next worker and creates the function there
+	 * @param factory The factory for the function
+	 * @return The connection
+	 * @throws IOException Thrown if the worker could not be reached
+	 */
+	Connection open(SerializableSupplier<?> factory) throws IOException {
+		InetSocketAddress address = addresses.get(Math.floorMod(nextAddress.getAndIncrement(), addresses.size()));
+		
+		Socket socket = new Socket();
+		try {
+			socket.connect(address, CONNECT_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			// A worker that hangs fails with a timeout, which is retried like any other failure to reach it
+			socket.setSoTimeout(readTimeout);
+			
+			Connection connection = new Connection(socket, token);
+			connection.start(factory);
+			return connection;
+		} catch (IOException | RuntimeException e) {
+			socket.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * A connection to a single worker process with its own function instance
+	 * @author schmoller
+	 */
+	static class Connection implements Closeable {
+		private final Socket socket;
+		private final ObjectOutputStream out;
+		private final ObjectInputStream in;
+		
+		private Connection(Socket socket, String token) throws IOException {
+			this.socket = socket;
+			
+			// The worker reads the token before anything else
+			DataOutputStream handshake = new DataOutputStream(socket.getOutputStream());
+			handshake.writeUTF(token);
+			handshake.flush();
+			
+			out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.flush();
+			in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+		}
+		
+		private void start(SerializableSupplier<?> factory) throws IOException {
+			out.writeObject(factory);
+			out.flush();
+			
+			checkFailure(readReply());
+		}
+		
+		/**
+		 * Applies the function to each item in the worker
+		 * @param items The items to apply the function to
+		 * @return The results, in the same order as the items
+		 * @throws IOException Thrown if the worker could not be reached
+		 */
+		public Object[] apply(Object[] items) throws IOException {
+			out.writeObject(items);
+			// Nothing is shared between chunks, this stops the stream holding onto every item
+			out.reset();
+			out.flush();
+			
+			Object reply = readReply();
+			checkFailure(reply);
+			
+			Object[] results = (Object[])reply;
+			if (results.length != items.length) {
+				throw new IOException("Worker returned " + results.length + " results for " + items.length + " items");
+			}
+			
+			return results;
+		}
+		
+		private Object readReply() throws IOException {
+			try {
+				return in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IllegalStateException("A worker replied with a class that is not available", e);
+			}
+		}
+		
+		/**
+		 * Throws the failure of the function in the worker, if there was one
+		 */
+		private static void checkFailure(Object reply) {
+			if (reply instanceof Throwable) {
+				Throwable failure = (Throwable)reply;
+				Throwables.propagateIfPossible(failure);
+				throw new IllegalStateException("The function failed in a worker process", failure);
+			}
+		}
+		
+		/**
+		 * Tells the worker to close its function, then closes the connection
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				out.writeObject(null);
+				out.flush();
+			} finally {
+				socket.close();
+			}
+		}
+		
+		/**
+		 * Closes the connection without waiting, used once the worker is known to have failed
+		 */
+		public void abort() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Nothing more can be done
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package tasker;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+/**
+ * Supplies the items of a reactive streams publisher.
+ * Only as many items as fit in the buffer are ever requested, more are
+ * requested once the executors have taken half of the buffer.
+ * The publisher is subscribed to when the first item is requested.
+ * @author schmoller
+ *
+ * @param <T> The item type
+ */
+class PublisherSupplier<T> implements Supplier<T>, Subscriber<T>, AutoCloseable {
+	/**
+	 * The number of items buffered for each executing thread when no buffer size is given
+	 */
+	static final int DEFAULT_BUFFER_PER_THREAD = 64;
+	
+	private final Publisher<? extends T> publisher;
+	private final int bufferSize;
+	private final int replenishThreshold;
+	
+	private final ReentrantLock lock;
+	private final Condition itemsAvailable;
+	
+	// Guarded by lock
+	private final ArrayDeque<T> buffer;
+	private Subscription subscription;
+	private boolean subscribed;
+	private boolean complete;
+	private boolean closed;
+	private Throwable error;
+	private int taken;
+	
+	/**
+	 * @param publisher The publisher to take items from
+	 * @param bufferSize The maximum number of items that may be requested but not yet taken
+	 */
+	public PublisherSupplier(Publisher<? extends T> publisher, int bufferSize) {
+		Preconditions.checkNotNull(publisher);
+		Preconditions.checkArgument(bufferSize > 0, "Buffer size cannot be less than 1");
+		
+		this.publisher = publisher;
+		this.bufferSize = bufferSize;
+		replenishThreshold = Math.max(1, bufferSize / 2);
+		
+		lock = new ReentrantLock();
+		itemsAvailable = lock.newCondition();
+		buffer = new ArrayDeque<>(bufferSize);
+	}
+	
+	@Override
+	public T get() {
+		// The publisher may call back into this from its own locks, so it is never called while holding ours
+		boolean subscribe = false;
+		lock.lock();
+		try {
+			if (!subscribed) {
+				subscribed = true;
+				subscribe = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		if (subscribe) {
+			publisher.subscribe(this);
+		}
+		
+		T item;
+		Subscription replenish = null;
+		int count = 0;
+		lock.lock();
+		try {
+			while (buffer.isEmpty()) {
+				if (error != null) {
+					Throwables.propagateIfPossible(error);
+					throw new IllegalStateException("The publisher failed", error);
+				}
+				
+				if (complete || closed) {
+					return null;
+				}
+				
+				try {
+					itemsAvailable.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CancellationException("Interrupted while waiting for the publisher");
+				}
+			}
+			
+			item = buffer.pollFirst();
+			
+			// Request in batches rather than one item at a time
+			if (++taken >= replenishThreshold && !complete && error == null) {
+				count = taken;
+				taken = 0;
+				replenish = subscription;
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		// Requesting after the subscription has been cancelled does nothing
+		if (replenish != null) {
+			replenish.request(count);
+		}
+		
+		return item;
+	}
+	
+	@Override
+	public void onSubscribe(Subscription subscription) {
+		Preconditions.checkNotNull(subscription);
+		
+		boolean accepted;
+		lock.lock();
+		try {
+			accepted = (this.subscription == null && !closed);
+			if (accepted) {
+				this.subscription = subscription;
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		if (accepted) {
+			subscription.request(bufferSize);
+		} else {
+			subscription.cancel();
+		}
+	}
+	
+	@Override
+	public void onNext(T item) {
+		Preconditions.checkNotNull(item);
+		
+		Subscription overflowed;
+		lock.lock();
+		try {
+			// Items may still arrive after the subscription is cancelled
+			if (closed || error != null) {
+				return;
+			}
+			
+			if (buffer.size() < bufferSize) {
+				buffer.addLast(item);
+				itemsAvailable.signal();
+				return;
+			}
+			
+			// A subscriber may not throw here, so the publisher is treated as having failed
+			error = new IllegalStateException("The publisher sent more items than were requested");
+			itemsAvailable.signalAll();
+			overflowed = subscription;
+		} finally {
+			lock.unlock();
+		}
+		
+		overflowed.cancel();
+	}
+	
+	@Override
+	public void onError(Throwable error) {
+		Preconditions.checkNotNull(error);
+		
+		lock.lock();
+		try {
+			this.error = error;
+			itemsAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void onComplete() {
+		lock.lock();
+		try {
+			complete = true;
+			itemsAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Cancels the subscription if the publisher has not yet finished.
+	 * This is called once the task is done, including when it failed or was cancelled.
+	 */
+	@Override
+	public void close() {
+		Subscription cancelled = null;
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			
+			closed = true;
+			buffer.clear();
+			itemsAvailable.signalAll();
+			
+			if (subscription != null && !complete && error == null) {
+				cancelled = subscription;
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		if (cancelled != null) {
+			cancelled.cancel();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package tasker;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Defines how records are separated within a file
+ * @author schmoller
+ * @see Tasker#consumeRecords(java.nio.file.Path, RecordDelimiter)
+ */
+public interface RecordDelimiter {
+	/**
+	 * Finds the next delimiter in the buffer
+	 * @param buffer The buffer to search. The position and limit of this buffer must not be changed
+	 * @param from The absolute index to begin searching from
+	 * @return The absolute index of the first byte of the delimiter, or -1 if there are no more delimiters before the limit
+	 */
+	int indexOf(ByteBuffer buffer, int from);
+	
+	/**
+	 * Gets the length in bytes of the delimiter
+	 * @return The number of bytes
+	 */
+	int length();
+	
+	/**
+	 * Gets a delimiter that separates records by a fixed sequence of bytes
+	 * @param delimiter The bytes that separate records
+	 * @return The delimiter
+	 */
+	static RecordDelimiter of(byte... delimiter) {
+		Preconditions.checkArgument(delimiter.length > 0, "Delimiter cannot be empty");
+		byte[] pattern = delimiter.clone();
+		
+		return new RecordDelimiter() {
+			@Override
+			public int indexOf(ByteBuffer buffer, int from) {
+				int last = buffer.limit() - pattern.length;
+				outer:
+				for (int i = from; i <= last; ++i) {
+					for (int j = 0; j < pattern.length; ++j) {
+						if (buffer.get(i + j) != pattern[j]) {
+							continue outer;
+						}
+					}
+					
+					return i;
+				}
+				
+				return -1;
+			}
+			
+			@Override
+			public int length() {
+				return pattern.length;
+			}
+		};
+	}
+	
+	/**
+	 * Gets a delimiter that separates records by the line feed character.
+	 * @return The delimiter
+	 */
+	static RecordDelimiter newLine() {
+		return of((byte)'\n');
+	}
+}
@@ -0,0 +1,23 @@
+package tasker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Defines how items are written into a file sink.
+ * @author schmoller
+ *
+ * @param <T> The item type
+ * @see ItemTasker#intoFileSink(java.nio.file.Path, RecordEncoder)
+ */
+@FunctionalInterface
+public interface RecordEncoder<T> {
+	/**
+	 * Encodes an item into the buffer.
+	 * If there is not enough space remaining a {@link java.nio.BufferOverflowException} 
+	 * should be thrown. The buffer will be reset, flushed, and the item will be encoded 
+	 * again into the empty buffer.
+	 * @param item The item to encode
+	 * @param buffer The buffer to write into
+	 */
+	void encode(T item, ByteBuffer buffer);
+}
@@ -0,0 +1,169 @@
+package tasker;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A stage that applies its function in the worker processes of a {@link ProcessPool}.
+ * Each executor holds a connection to one worker and sends it a chunk of items
+ * at a time. The results are passed on as they are returned, just as they are
+ * by a local stage.
+ * @author schmoller
+ *
+ * @param <In> The input type
+ * @param <Out> The output type
+ */
+class RemoteStage<In, Out> extends OutputtingStage<In, Out> {
+	private final ProcessPool pool;
+	private final SerializableSupplier<? extends Function<? super In, ? extends Out>> functionFactory;
+	
+	public RemoteStage(Task<?> task, ProcessPool pool, SerializableSupplier<? extends Function<? super In, ? extends Out>> functionFactory) {
+		// The function is only ever created by the workers
+		super(task, () -> {
+			throw new IllegalStateException("Remote functions are not created locally");
+		}, InstanceOptions.PerThread);
+		
+		Preconditions.checkNotNull(pool);
+		Preconditions.checkNotNull(functionFactory);
+		
+		this.pool = pool;
+		this.functionFactory = functionFactory;
+	}
+	
+	@Override
+	StageWorker createWorker(Supplier<In> supplier, OutputSink<Out> output) {
+		return new RemoteExecutor<>(this, supplier, output);
+	}
+	
+	/**
+	 * Executor that sends chunks of items to a worker process
+	 * @author schmoller
+	 *
+	 * @param <In> The input type
+	 * @param <Out> The output type
+	 */
+	private static class RemoteExecutor<In, Out> implements StageWorker {
+		private final RemoteStage<In, Out> stage;
+		private final Supplier<In> inputSupplier;
+		private final OutputSink<Out> output;
+		
+		private final Object[] chunk;
+		private ProcessPool.Connection connection;
+		
+		public RemoteExecutor(RemoteStage<In, Out> stage, Supplier<In> inputSupplier, OutputSink<Out> output) {
+			Preconditions.checkNotNull(stage);
+			Preconditions.checkNotNull(inputSupplier);
+			Preconditions.checkNotNull(output);
+			
+			this.stage = stage;
+			this.inputSupplier = inputSupplier;
+			this.output = output;
+			
+			chunk = new Object[stage.pool.getChunkSize()];
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean process(int maxItems) {
+			int processed = 0;
+			while (processed < maxItems) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new CancellationException("The stage was cancelled");
+				}
+				
+				// Fill the next chunk
+				int limit = Math.min(chunk.length, maxItems - processed);
+				int count = 0;
+				boolean exhausted = false;
+				while (count < limit) {
+					In input = inputSupplier.get();
+					if (input == null) {
+						exhausted = true;
+						break;
+					}
+					
+					chunk[count++] = input;
+				}
+				
+				if (count > 0) {
+					Object[] items = (count == chunk.length ? chunk : Arrays.copyOf(chunk, count));
+					Object[] results;
+					long permit = stage.acquirePermit(count);
+					boolean failed = true;
+					try {
+						results = apply(items);
+						failed = false;
+					} finally {
+						stage.releasePermit(permit, failed);
+					}
+					Arrays.fill(chunk, null);
+					
+					for (Object result : results) {
+						output.accept((Out)result);
+					}
+					processed += count;
+				}
+				
+				if (exhausted) {
+					output.complete();
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Applies the function to a chunk. If the worker cannot be reached
+		 * the chunk is retried on the next worker.
+		 */
+		private Object[] apply(Object[] items) {
+			IOException failure = null;
+			for (int attempt = 0; attempt < stage.pool.getAttemptLimit(); ++attempt) {
+				try {
+					if (connection == null) {
+						connection = stage.pool.open(stage.functionFactory);
+					}
+					
+					return connection.apply(items);
+				} catch (ObjectStreamException e) {
+					// The items or results cannot be sent, another worker will not help
+					throw new UncheckedIOException(e);
+				} catch (IOException e) {
+					if (connection != null) {
+						connection.abort();
+						connection = null;
+					}
+					
+					if (failure == null) {
+						failure = e;
+					} else {
+						failure.addSuppressed(e);
+					}
+				}
+			}
+			
+			throw new UncheckedIOException("Unable to process a chunk on any worker process", failure);
+		}
+		
+		@Override
+		public void close() {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (IOException e) {
+					// The worker closes its function once the connection is lost anyway
+				} finally {
+					connection = null;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,422 @@
+package tasker;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * A stage that passes its input through a ring of preallocated events.
+ * <p>
+ * One executor translates the input into the next free event and publishes it.
+ * Each handler has one executor per thread, which claim events one at a time and
+ * only handle an event once every executor of the previous handler has passed it.
+ * Progress is tracked with sequences rather than locks, and an event is only reused
+ * once the last handler has passed it.
+ * <p>
+ * Every executor runs at once, so the service must be able to run one more than the number
+ * of handlers multiplied by the thread count. On a {@link TaskScheduler} executors that are
+ * waiting give up their thread instead.
+ * @author schmoller
+ *
+ * @param <In> The input type
+ * @param <E> The event type
+ */
+class RingStage<In, E> extends Stage<In> implements RingTask<E> {
+	/**
+	 * The number of times a chunked executor waits before it gives up its thread
+	 */
+	private static final int YIELD_AFTER = 256;
+	
+	private static final long YIELD = -2;
+	private static final long END = -3;
+	
+	private final Object[] events;
+	private final int mask;
+	private final EventTranslator<? super In, ? super E> translator;
+	private final List<Handler<E>> handlers;
+	private WaitStrategy waitStrategy;
+	
+	public RingStage(Task<?> task, int size, Supplier<? extends E> eventFactory, EventTranslator<? super In, ? super E> translator) {
+		super(task);
+		
+		Preconditions.checkArgument(size > 0 && Integer.bitCount(size) == 1, "Ring size must be a power of 2");
+		Preconditions.checkNotNull(eventFactory);
+		Preconditions.checkNotNull(translator);
+		
+		this.translator = translator;
+		mask = size - 1;
+		handlers = Lists.newArrayList();
+		waitStrategy = WaitStrategy.Sleeping;
+		
+		// Every event is created up front and reused by each execution
+		events = new Object[size];
+		for (int i = 0; i < size; ++i) {
+			events[i] = Preconditions.checkNotNull(eventFactory.get(), "Events cannot be null");
+		}
+	}
+	
+	public RingTask<E> handleWith(Consumer<? super E> handler) {
+		Preconditions.checkNotNull(handler);
+		
+		// The handler belongs to the caller, it is not closed
+		handlers.add(new Handler<>(() -> handler, InstanceOptions.Single, false));
+		return this;
+	}
+	
+	public RingTask<E> handleWith(Supplier<? extends Consumer<? super E>> handlerSupplier) {
+		Preconditions.checkNotNull(handlerSupplier);
+		
+		handlers.add(new Handler<>(handlerSupplier, InstanceOptions.PerThread, true));
+		return this;
+	}
+	
+	public RingTask<E> withWaitStrategy(WaitStrategy strategy) {
+		Preconditions.checkNotNull(strategy);
+		
+		waitStrategy = strategy;
+		return this;
+	}
+	
+	public ListenableFuture<Void> execute() {
+		return getTask().executeTask(this);
+	}
+	
+	public void executeAndWait() throws InterruptedException, ExecutionException {
+		getTask().checkStartsTask(this);
+		ListenableFuture<Void> future = execute();
+		
+		future.get();
+	}
+	
+	
+	// The last published event
+	private Sequence cursor;
+	// The last event there will be, once the input is exhausted
+	private volatile long finalSequence;
+	private volatile boolean halted;
+	private int threadsPerHandler;
+	private int createdExecutors;
+	
+	@Override
+	protected void preExecute() {
+		Preconditions.checkState(!handlers.isEmpty(), "A ring needs at least one handler");
+		
+		cursor = new Sequence(-1);
+		finalSequence = Long.MAX_VALUE;
+		halted = false;
+		createdExecutors = 0;
+		
+		for (Handler<E> handler : handlers) {
+			handler.prepare();
+		}
+	}
+	
+	@Override
+	protected int getExecutorCount(int threadCount) {
+		threadsPerHandler = threadCount;
+		
+		for (Handler<E> handler : handlers) {
+			handler.workerSequences = new Sequence[threadCount];
+			for (int i = 0; i < threadCount; ++i) {
+				handler.workerSequences[i] = new Sequence(-1);
+			}
+		}
+		
+		// One to publish, then every handler has one per thread
+		int executorCount = 1 + handlers.size() * threadCount;
+		
+		// The executors wait on each other, so a service that cannot run them all at once would hang rather than fail
+		int limit = getTask().getServiceThreadLimit();
+		Preconditions.checkState(executorCount <= limit, "A ring with %s handlers on %s threads needs %s threads at once, but the service has at most %s", handlers.size(), threadCount, executorCount, limit);
+		return executorCount;
+	}
+	
+	@Override
+	protected StageWorker createExecutor(Supplier<In> supplier) {
+		int index = createdExecutors++;
+		if (index == 0) {
+			return new Publisher(supplier);
+		}
+		
+		int handler = (index - 1) / threadsPerHandler;
+		int worker = (index - 1) % threadsPerHandler;
+		return new HandlerExecutor(handler, worker);
+	}
+	
+	@Override
+	protected void cleanup() {
+		Throwable failure = null;
+		for (Handler<E> handler : handlers) {
+			try {
+				handler.cleanup();
+			} catch (Throwable e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException)failure;
+		} else if (failure instanceof Error) {
+			throw (Error)failure;
+		}
+	}
+	
+	@Override
+	protected ListenableFuture<Void> postExecute(ListeningExecutorService service, int threadCount) {
+		// Nothing to do
+		return Futures.immediateFuture(null);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private E event(long sequence) {
+		return (E)events[(int)(sequence & mask)];
+	}
+	
+	private static long minimum(Sequence[] sequences) {
+		long minimum = Long.MAX_VALUE;
+		for (Sequence sequence : sequences) {
+			minimum = Math.min(minimum, sequence.get());
+		}
+		
+		return minimum;
+	}
+	
+	/**
+	 * Waits until every sequence of the gate has reached the sequence
+	 * @param sequence The sequence to wait for
+	 * @param gate The sequences that must reach it, or null to wait on the cursor
+	 * @param chunked True if the executor should give up its thread rather than wait for long
+	 * @return The lowest sequence of the gate, {@link #YIELD} if the executor should give up its thread,
+	 *         or {@link #END} if there will be no such sequence
+	 */
+	private long waitFor(long sequence, Sequence[] gate, boolean chunked) {
+		int attempt = 0;
+		while (true) {
+			long available = (gate == null ? cursor.get() : minimum(gate));
+			if (available >= sequence) {
+				return available;
+			}
+			
+			if (halted || sequence > finalSequence) {
+				return END;
+			}
+			
+			if (Thread.currentThread().isInterrupted()) {
+				throw new CancellationException("The stage was cancelled");
+			}
+			
+			if (chunked && attempt >= YIELD_AFTER) {
+				return YIELD;
+			}
+			
+			waitStrategy.idle(attempt++);
+		}
+	}
+	
+	/**
+	 * A handler and the progress of its executors
+	 * @author schmoller
+	 *
+	 * @param <E> The event type
+	 */
+	private static class Handler<E> {
+		private final Supplier<? extends Consumer<? super E>> handlerSupplier;
+		private final InstanceOptions options;
+		private final boolean closeSharedInstance;
+		
+		private Consumer<? super E> sharedInstance;
+		// The next event to be claimed by any executor
+		private Sequence claimed;
+		// The last event each executor is finished with
+		private Sequence[] workerSequences;
+		
+		public Handler(Supplier<? extends Consumer<? super E>> handlerSupplier, InstanceOptions options, boolean closeSharedInstance) {
+			this.handlerSupplier = handlerSupplier;
+			this.options = options;
+			this.closeSharedInstance = closeSharedInstance;
+		}
+		
+		public void prepare() {
+			claimed = new Sequence(-1);
+			if (options == InstanceOptions.Single) {
+				sharedInstance = handlerSupplier.get();
+			}
+		}
+		
+		public void cleanup() {
+			if (options == InstanceOptions.Single) {
+				try {
+					if (closeSharedInstance) {
+						closeInstance(sharedInstance);
+					}
+				} finally {
+					sharedInstance = null;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Executor that translates the input into events
+	 * @author schmoller
+	 */
+	private class Publisher implements StageWorker {
+		private final Supplier<In> inputSupplier;
+		private final Sequence[] lastHandler;
+		private long cachedGate;
+		
+		public Publisher(Supplier<In> inputSupplier) {
+			Preconditions.checkNotNull(inputSupplier);
+			
+			this.inputSupplier = inputSupplier;
+			lastHandler = handlers.get(handlers.size() - 1).workerSequences;
+			cachedGate = -1;
+		}
+		
+		@Override
+		public boolean process(int maxItems) {
+			boolean chunked = (maxItems != Integer.MAX_VALUE);
+			
+			for (int i = 0; i < maxItems; ++i) {
+				if (halted) {
+					return false;
+				}
+				
+				long next = cursor.get() + 1;
+				
+				// The event can be reused once the last handler is finished with it
+				long wrap = next - events.length;
+				if (wrap > cachedGate) {
+					long available = waitFor(wrap, lastHandler, chunked);
+					if (available == YIELD) {
+						return true;
+					} else if (available == END) {
+						return false;
+					}
+					cachedGate = available;
+				}
+				
+				In input = inputSupplier.get();
+				if (input == null) {
+					finalSequence = next - 1;
+					return false;
+				}
+				
+				try {
+					translator.translate(input, event(next));
+				} catch (Throwable e) {
+					halted = true;
+					throw e;
+				}
+				
+				// Ordered so the event is visible before it is published
+				cursor.lazySet(next);
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public void close() {
+			// The handlers cannot finish if the input stops for any other reason
+			if (finalSequence == Long.MAX_VALUE) {
+				halted = true;
+			}
+		}
+	}
+	
+	/**
+	 * Executor that claims events one at a time and handles them
+	 * @author schmoller
+	 */
+	private class HandlerExecutor implements StageWorker {
+		private final Handler<E> handler;
+		private final Sequence[] previous;
+		private final Sequence sequence;
+		
+		private Consumer<? super E> handlerInstance;
+		private long nextSequence;
+		private boolean hasClaim;
+		private boolean finished;
+		
+		public HandlerExecutor(int handlerIndex, int worker) {
+			handler = handlers.get(handlerIndex);
+			previous = (handlerIndex == 0 ? null : handlers.get(handlerIndex - 1).workerSequences);
+			sequence = handler.workerSequences[worker];
+			
+			if (handler.options == InstanceOptions.Single) {
+				handlerInstance = handler.sharedInstance;
+			}
+		}
+		
+		@Override
+		public boolean process(int maxItems) {
+			// Per thread instances are created by the thread that uses them so they are created in parallel
+			if (handlerInstance == null) {
+				handlerInstance = handler.handlerSupplier.get();
+			}
+			
+			boolean chunked = (maxItems != Integer.MAX_VALUE);
+			long available = -1;
+			
+			for (int i = 0; i < maxItems; ++i) {
+				if (!hasClaim) {
+					nextSequence = handler.claimed.incrementAndGet();
+					// Everything this executor claimed before is finished
+					sequence.set(nextSequence - 1);
+					hasClaim = true;
+				}
+				
+				if (available < nextSequence) {
+					available = waitFor(nextSequence, previous, chunked);
+					if (available == YIELD) {
+						return true;
+					} else if (available == END) {
+						finished = true;
+						return false;
+					}
+				}
+				
+				try {
+					handlerInstance.accept(event(nextSequence));
+				} catch (Throwable e) {
+					halted = true;
+					throw e;
+				}
+				
+				hasClaim = false;
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public void close() {
+			// The events after this one will never be handled if it stops for any other reason
+			if (!finished) {
+				halted = true;
+			}
+			
+			try {
+				// Shared instances are closed by the stage
+				if (handler.options == InstanceOptions.PerThread) {
+					closeInstance(handlerInstance);
+				}
+			} finally {
+				handlerInstance = null;
+			}
+		}
+	}
+}
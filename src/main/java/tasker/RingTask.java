@@ -0,0 +1,36 @@
+package tasker;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Defines a task that passes events through a ring of preallocated events.
+ * Each handler reads and writes the events in place and handles an event only
+ * once the handler before it has finished with it. The handlers all run at once
+ * rather than one after another, so there is no barrier between them.
+ * @author schmoller
+ *
+ * @param <E> The event type
+ */
+public interface RingTask<E> extends ConsumingTask {
+	/**
+	 * Adds a handler for every event. Every thread handles events with the same instance.
+	 * @param handler The handler. This MUST be thread-safe as it will be used by ALL threads
+	 * @return this for chaining
+	 */
+	RingTask<E> handleWith(Consumer<? super E> handler);
+	
+	/**
+	 * Adds a handler for every event. Each thread handles events with its own instance.
+	 * @param handlerSupplier A supplier for handlers
+	 * @return this for chaining
+	 */
+	RingTask<E> handleWith(Supplier<? extends Consumer<? super E>> handlerSupplier);
+	
+	/**
+	 * Sets how the workers wait for events. {@link WaitStrategy#Sleeping} is used by default
+	 * @param strategy The strategy
+	 * @return this for chaining
+	 */
+	RingTask<E> withWaitStrategy(WaitStrategy strategy);
+}
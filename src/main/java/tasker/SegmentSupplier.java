@@ -0,0 +1,55 @@
+package tasker;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import tasker.SegmentedBuffer.Segment;
+
+/**
+ * Supplies the results held in segmented buffers, dropping each segment
+ * once it has been read
+ * @author schmoller
+ *
+ * @param <Out> The item type
+ */
+class SegmentSupplier<Out> implements Supplier<Out> {
+	private final Segment[] chains;
+	private final boolean clearItems;
+	private int chainIndex;
+	private Segment current;
+	private int elementIndex;
+	
+	/**
+	 * @param chains The first segment of each buffer. Nulls are skipped
+	 * @param clearItems True if this is the only reader, so items are cleared as they are supplied
+	 */
+	public SegmentSupplier(List<Segment> chains, boolean clearItems) {
+		this.chains = chains.toArray(new Segment[chains.size()]);
+		this.clearItems = clearItems;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized Out get() {
+		while (current == null || elementIndex >= current.size) {
+			if (current != null && current.next != null) {
+				current = current.next;
+			} else if (chainIndex < chains.length) {
+				current = chains[chainIndex];
+				chains[chainIndex++] = null;
+			} else {
+				current = null;
+				return null;
+			}
+			elementIndex = 0;
+		}
+		
+		Object item = current.items[elementIndex];
+		if (clearItems) {
+			current.items[elementIndex] = null;
+		}
+		
+		++elementIndex;
+		return (Out)item;
+	}
+}
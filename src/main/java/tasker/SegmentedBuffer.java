@@ -0,0 +1,51 @@
+package tasker;
+
+import java.util.function.Consumer;
+
+/**
+ * Holds the results of a single executor in a chain of fixed size segments.
+ * Unlike a list, the results are never copied as the buffer grows, and once
+ * the buffer is handed to its readers each segment can be reclaimed as soon as
+ * every reader has moved past it.
+ * @author schmoller
+ *
+ * @param <T> The item type
+ */
+class SegmentedBuffer<T> implements Consumer<T> {
+	static final int SEGMENT_SIZE = 1024;
+	
+	private Segment head;
+	private Segment tail;
+	
+	@Override
+	public void accept(T item) {
+		if (tail == null) {
+			head = tail = new Segment();
+		} else if (tail.size == SEGMENT_SIZE) {
+			tail.next = new Segment();
+			tail = tail.next;
+		}
+		
+		tail.items[tail.size++] = item;
+	}
+	
+	/**
+	 * Gives up the segments so that they are only held by whatever reads them
+	 * @return The first segment, or null if the buffer is empty
+	 */
+	Segment release() {
+		Segment first = head;
+		head = tail = null;
+		return first;
+	}
+	
+	static class Segment {
+		final Object[] items;
+		int size;
+		Segment next;
+		
+		public Segment() {
+			items = new Object[SEGMENT_SIZE];
+		}
+	}
+}
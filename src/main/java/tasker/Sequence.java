@@ -0,0 +1,16 @@
+package tasker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A counter padded so that counters updated by different threads do not share a cache line
+ * @author schmoller
+ */
+@SuppressWarnings({ "serial", "unused" })
+class Sequence extends AtomicLong {
+	private long p1, p2, p3, p4, p5, p6, p7;
+	
+	public Sequence(long initialValue) {
+		super(initialValue);
+	}
+}
@@ -0,0 +1,304 @@
+package tasker;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * A stage that consumes every item with a single consumer that is never used by two threads at once.
+ * <p>
+ * Rather than each executor locking the consumer for each item, executors collect items into
+ * their own batch and publish full batches in their own slot. Whichever executor holds the
+ * combiner role then passes every published batch to the consumer in one go, so the role changes
+ * hands once per batch rather than once per item, and executors that are waiting keep collecting
+ * their next batch.
+ * @author schmoller
+ *
+ * @param <In> The input type
+ */
+class SerialConsumingStage<In> extends Stage<In> implements GovernableTask {
+	/**
+	 * The number of items each executor collects before publishing them
+	 */
+	static final int BATCH_SIZE = 64;
+	/**
+	 * The number of times a chunked executor waits before it gives up its thread
+	 */
+	private static final int YIELD_AFTER = 256;
+	
+	// The consumer belongs to the caller, it is not closed
+	private final Consumer<? super In> consumer;
+	// Passes each item to the consumer once the governor allows it
+	private final Consumer<In> governedConsumer;
+	
+	public SerialConsumingStage(Task<?> task, Consumer<? super In> consumer) {
+		super(task);
+		
+		this.consumer = Preconditions.checkNotNull(consumer);
+		governedConsumer = this::consume;
+	}
+	
+	public ListenableFuture<Void> execute() {
+		return getTask().executeTask(this);
+	}
+	
+	public void executeAndWait() throws InterruptedException, ExecutionException {
+		getTask().checkStartsTask(this);
+		ListenableFuture<Void> future = execute();
+		
+		future.get();
+	}
+	
+	public GovernableTask withGovernor(Governor governor) {
+		setGovernor(governor);
+		return this;
+	}
+	
+	
+	private List<Slot> slots;
+	private AtomicBoolean combining;
+	private int batchLimit;
+	
+	@Override
+	protected void preExecute() {
+		// Executors look through the slots while the rest are still being created
+		slots = new CopyOnWriteArrayList<>();
+		combining = new AtomicBoolean();
+		// Items of a feed may arrive slowly, so they are not held back to fill a batch
+		batchLimit = (getTask().isStreaming() ? 1 : BATCH_SIZE);
+	}
+	
+	@Override
+	protected StageWorker createExecutor(Supplier<In> supplier) {
+		Slot slot = new Slot();
+		slots.add(slot);
+		
+		return new StageExecutor(supplier, slot);
+	}
+	
+	@Override
+	protected void cleanup() {
+		slots = null;
+	}
+	
+	@Override
+	protected ListenableFuture<Void> postExecute(ListeningExecutorService service, int threadCount) {
+		// Nothing to do
+		return Futures.immediateFuture(null);
+	}
+	
+	/**
+	 * Passes every published batch to the consumer if no other executor is already doing so
+	 * @return True if the batches were combined, false if another executor holds the combiner role
+	 */
+	private boolean tryCombine() {
+		if (!combining.compareAndSet(false, true)) {
+			return false;
+		}
+		
+		long traceBegin = getTracer().begin();
+		boolean combined = false;
+		try {
+			for (Slot slot : slots) {
+				Batch batch = slot.pending;
+				if (batch != null) {
+					batch.drainTo(governedConsumer);
+					// Hands the batch back to its executor
+					slot.pending = null;
+					combined = true;
+				}
+			}
+		} finally {
+			combining.set(false);
+			if (combined) {
+				getTracer().end("combiner", getName(), traceBegin);
+			}
+		}
+		
+		return true;
+	}
+	
+	private void consume(In item) {
+		long permit = acquirePermit(1);
+		boolean failed = true;
+		try {
+			consumer.accept(item);
+			failed = false;
+		} finally {
+			releasePermit(permit, failed);
+		}
+	}
+	
+	/**
+	 * Items collected by one executor
+	 * @author schmoller
+	 */
+	private static class Batch {
+		private final Object[] items;
+		private int size;
+		
+		public Batch(int limit) {
+			items = new Object[limit];
+		}
+		
+		public void add(Object item) {
+			items[size++] = item;
+		}
+		
+		public boolean isFull() {
+			return size == items.length;
+		}
+		
+		public boolean isEmpty() {
+			return size == 0;
+		}
+		
+		@SuppressWarnings("unchecked")
+		public <In> void drainTo(Consumer<? super In> consumer) {
+			try {
+				for (int i = 0; i < size; ++i) {
+					consumer.accept((In)items[i]);
+				}
+			} finally {
+				// Items are not held once they are consumed
+				Arrays.fill(items, 0, size, null);
+				size = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Where an executor publishes its batch for the combiner
+	 * @author schmoller
+	 */
+	private static class Slot {
+		// The batch waiting to be combined, or null once it has been
+		private volatile Batch pending;
+	}
+	
+	/**
+	 * Executor that collects items into batches and takes the combiner role when it is free
+	 * @author schmoller
+	 */
+	private class StageExecutor implements StageWorker {
+		private final Supplier<In> inputSupplier;
+		private final Slot slot;
+		
+		// Filled while the other batch is waiting to be combined
+		private Batch filling;
+		private Batch spare;
+		private boolean inputExhausted;
+		private long itemCount;
+		
+		public StageExecutor(Supplier<In> inputSupplier, Slot slot) {
+			this.inputSupplier = Preconditions.checkNotNull(inputSupplier);
+			this.slot = slot;
+			
+			filling = new Batch(batchLimit);
+			spare = new Batch(batchLimit);
+		}
+		
+		@Override
+		public boolean process(int maxItems) {
+			boolean chunked = (maxItems != Integer.MAX_VALUE);
+			Tracer tracer = getTracer();
+			
+			for (int i = 0; i < maxItems; ++i) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new CancellationException("The stage was cancelled");
+				}
+				
+				// A chunked executor may have given up its thread before its full batch was published
+				if (filling.isFull() && !publish(chunked)) {
+					return true;
+				}
+				
+				if (!inputExhausted) {
+					boolean traced = tracer.sampleItem(++itemCount);
+					
+					// Next object to process
+					long waitBegin = (traced ? tracer.begin() : Tracer.NOT_TRACED);
+					In input = inputSupplier.get();
+					tracer.end("supplier", "Wait for input", waitBegin);
+					if (input == null) {
+						inputExhausted = true;
+					} else {
+						filling.add(input);
+						if (!filling.isFull()) {
+							continue;
+						}
+					}
+				}
+				
+				if (!filling.isEmpty() && !publish(chunked)) {
+					return true;
+				}
+				
+				// Every item must be consumed before the executor stops
+				if (inputExhausted) {
+					return !awaitCombined(chunked);
+				}
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Publishes the filling batch once the previous one has been combined
+		 * @return False if the executor should give up its thread and try again
+		 */
+		private boolean publish(boolean chunked) {
+			if (!awaitCombined(chunked)) {
+				return false;
+			}
+			
+			Batch published = filling;
+			filling = spare;
+			spare = published;
+			slot.pending = published;
+			
+			// Combine now if nobody else is, otherwise keep collecting
+			tryCombine();
+			return true;
+		}
+		
+		/**
+		 * Waits until the published batch has been combined, taking the combiner role whenever it is free
+		 * @return False if the executor should give up its thread and try again
+		 */
+		private boolean awaitCombined(boolean chunked) {
+			for (int attempt = 0; slot.pending != null; ++attempt) {
+				if (tryCombine()) {
+					continue;
+				}
+				
+				if (Thread.currentThread().isInterrupted()) {
+					throw new CancellationException("The stage was cancelled");
+				}
+				
+				if (chunked && attempt >= YIELD_AFTER) {
+					return false;
+				}
+				
+				WaitStrategy.Sleeping.idle(attempt);
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public void close() {
+			// Nothing to do
+		}
+	}
+}
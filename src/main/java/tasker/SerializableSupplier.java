@@ -0,0 +1,15 @@
+package tasker;
+
+import java.io.Serializable;
+import java.util.function.Supplier;
+
+/**
+ * A supplier that can be sent to another process.
+ * Lambdas assigned to this type are serializable as long as everything they capture is.
+ * @author schmoller
+ *
+ * @param <T> The type of instance supplied
+ */
+@FunctionalInterface
+public interface SerializableSupplier<T> extends Supplier<T>, Serializable {
+}
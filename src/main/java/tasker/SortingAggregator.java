@@ -0,0 +1,91 @@
+package tasker;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Aggregator that sorts the results. Each thread sorts its own results
+ * once it is finished, then the sorted runs are merged in pairs with each
+ * round of merges running in parallel.
+ * @author schmoller
+ *
+ * @param <T> The element type
+ */
+class SortingAggregator<T> implements Aggregator<T, List<T>, List<T>> {
+	private final Comparator<? super T> comparator;
+	
+	public SortingAggregator(Comparator<? super T> comparator) {
+		Preconditions.checkNotNull(comparator);
+		
+		this.comparator = comparator;
+	}
+	
+	@Override
+	public List<T> createContainer() {
+		return Lists.newArrayList();
+	}
+	
+	@Override
+	public void accumulate(List<T> container, T element) {
+		container.add(element);
+	}
+	
+	@Override
+	public void complete(List<T> container) {
+		container.sort(comparator);
+	}
+	
+	@Override
+	public ListenableFuture<List<T>> combine(List<List<T>> containers, ListeningExecutorService service) {
+		return mergeRuns(Lists.newArrayList(containers), service);
+	}
+	
+	private ListenableFuture<List<T>> mergeRuns(List<List<T>> runs, ListeningExecutorService service) {
+		if (runs.isEmpty()) {
+			return Futures.immediateFuture(Lists.newArrayList());
+		} else if (runs.size() == 1) {
+			return Futures.immediateFuture(runs.get(0));
+		}
+		
+		// Merge neighbouring runs so that the order between threads is kept for equal elements
+		List<ListenableFuture<List<T>>> merged = Lists.newArrayListWithCapacity((runs.size() + 1) / 2);
+		for (int i = 0; i + 1 < runs.size(); i += 2) {
+			List<T> left = runs.get(i);
+			List<T> right = runs.get(i + 1);
+			merged.add(service.submit(() -> merge(left, right)));
+		}
+		
+		if (runs.size() % 2 != 0) {
+			merged.add(Futures.immediateFuture(runs.get(runs.size() - 1)));
+		}
+		
+		return Futures.transformAsync(Futures.allAsList(merged), nextRuns -> mergeRuns(nextRuns, service));
+	}
+	
+	private List<T> merge(List<T> left, List<T> right) {
+		List<T> merged = new ArrayList<>(left.size() + right.size());
+		
+		int leftIndex = 0;
+		int rightIndex = 0;
+		while (leftIndex < left.size() && rightIndex < right.size()) {
+			// Take from the left when equal to keep the merge stable
+			if (comparator.compare(right.get(rightIndex), left.get(leftIndex)) < 0) {
+				merged.add(right.get(rightIndex++));
+			} else {
+				merged.add(left.get(leftIndex++));
+			}
+		}
+		
+		merged.addAll(left.subList(leftIndex, left.size()));
+		merged.addAll(right.subList(rightIndex, right.size()));
+		
+		return merged;
+	}
+}
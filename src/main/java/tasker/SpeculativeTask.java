@@ -0,0 +1,24 @@
+package tasker;
+
+/**
+ * Defines a task that applies a local function to each value, which can be run speculatively
+ * 
+ * @author schmoller
+ *
+ * @param <T> The output value type
+ */
+public interface SpeculativeTask<T> extends OutputtingTask<T> {
+	/**
+	 * Marks the function of this stage as idempotent so that items may be run more than once.
+	 * Once the input is exhausted, executors with nothing left to do run a second copy of any item
+	 * that has been running for much longer than the average item. Whichever copy finishes first
+	 * is kept and the thread running the other is interrupted, so the function should stop
+	 * promptly when interrupted. A function that ignores interrupts still holds back the stage
+	 * until it returns.
+	 * @return this for chaining
+	 */
+	SpeculativeTask<T> speculative();
+	
+	@Override
+	SpeculativeTask<T> withGovernor(Governor governor);
+}
@@ -1,54 +1,425 @@
 package tasker;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 abstract class Stage<In> {
+	/**
+	 * Returned by {@link #acquirePermit(int)} when the stage has no governor
+	 */
+	static final long NO_PERMIT = Long.MIN_VALUE;
+	
 	private final Task<?> task;
+	private final String name;
+	private final Tracer tracer;
+	// Completed with the next execution of this stage when it ends one of several branches
+	private SettableFuture<Void> terminalFuture;
+	private Governor governor;
 	
 	public Stage(Task<?> task) {
 		this.task = task;
+		
+		name = "Stage " + task.nextStageNumber() + " (" + getClass().getSimpleName() + ")";
+		// Tasks that were not created by a Tasker may not have a tracer
+		Tracer taskTracer = task.getTracer();
+		tracer = (taskTracer != null ? taskTracer : Tracer.DISABLED);
 	}
 	
 	public Task<?> getTask() {
 		return task;
 	}
 	
+	/**
+	 * @return The name of this stage as shown in traces
+	 */
+	String getName() {
+		return name;
+	}
+	
+	Tracer getTracer() {
+		return tracer;
+	}
+	
+	/**
+	 * @return The stages that take the output of this stage
+	 */
+	List<? extends Stage<?>> getNextStages() {
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Sets a future to be completed once the next execution of this stage,
+	 * and any stages that follow it, are complete
+	 */
+	void setTerminalFuture(SettableFuture<Void> future) {
+		terminalFuture = future;
+	}
+	
+	void setGovernor(Governor governor) {
+		this.governor = Preconditions.checkNotNull(governor);
+	}
+	
+	/**
+	 * Waits on the governor of this stage, if it has one, before items are processed
+	 * @param permits The number of items about to be processed together
+	 * @return The permit to pass to {@link #releasePermit(long, boolean)}
+	 */
+	long acquirePermit(int permits) {
+		if (governor == null) {
+			return NO_PERMIT;
+		}
+		
+		try {
+			return governor.acquire(permits);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("The stage was cancelled");
+		}
+	}
+	
+	/**
+	 * Returns a permit once the items it was acquired for have been processed
+	 * @param permit The permit returned by {@link #acquirePermit(int)}
+	 * @param failed True if processing the items failed
+	 */
+	void releasePermit(long permit, boolean failed) {
+		if (permit != NO_PERMIT) {
+			governor.release(permit, failed);
+		}
+	}
+	
 	protected abstract void preExecute();
 	
-	protected abstract Runnable createExecutor(Supplier<In> supplier);
+	protected abstract StageWorker createExecutor(Supplier<In> supplier);
 	
-	protected abstract void postExecute(ListeningExecutorService service, int threadCount) throws ExecutionException, InterruptedException;
+	/**
+	 * Gets the number of executors to create for this stage. This is called after {@link #preExecute()}
+	 * @param threadCount The number of threads the task uses
+	 * @return The number of times {@link #createExecutor(Supplier)} is called
+	 */
+	protected int getExecutorCount(int threadCount) {
+		return threadCount;
+	}
 	
-	public void executeStage(Supplier<In> supplier, ListeningExecutorService service, int threadCount) throws ExecutionException, InterruptedException {
-		List<ListenableFuture<?>> futures = Lists.newArrayList();
+	/**
+	 * Releases anything shared between the executors.
+	 * This is called once every executor has stopped, whether the stage
+	 * succeeded, failed, or was cancelled.
+	 */
+	protected void cleanup() {
+		// Nothing to do
+	}
+	
+	/**
+	 * Processes the results once all executors have finished.
+	 * This is called on whichever thread finished last so it must not block.
+	 * @return A future that completes once this stage, and any stages that follow it, are complete
+	 */
+	protected abstract ListenableFuture<Void> postExecute(ListeningExecutorService service, int threadCount);
+	
+	/**
+	 * Launches the executors for this stage. This does not wait for the
+	 * executors, no thread is held while the stage is running.
+	 * @return A future that completes once this stage, and any stages that follow it, are complete
+	 */
+	public ListenableFuture<Void> executeStage(Supplier<In> supplier, ListeningExecutorService service, int threadCount) {
+		ListenableFuture<Void> future = launch(supplier, service, threadCount);
 		
-		// Prepare for execution
-		preExecute();
+		SettableFuture<Void> terminal = terminalFuture;
+		if (terminal != null) {
+			terminalFuture = null;
+			terminal.setFuture(future);
+		}
+		
+		return future;
+	}
+	
+	private ListenableFuture<Void> launch(Supplier<In> supplier, ListeningExecutorService service, int threadCount) {
+		long traceBegin = tracer.begin();
+		int executorCount;
+		try {
+			// Prepare for execution
+			preExecute();
+			executorCount = getExecutorCount(threadCount);
+		} catch (Throwable e) {
+			return Futures.immediateFailedFuture(e);
+		}
+		
+		StageExecution execution = new StageExecution(service, threadCount, executorCount, traceBegin);
 		
 		// Create and launch all threads
-		for (int i = 0; i < threadCount; ++i) {
-			Runnable task = createExecutor(supplier);
-			futures.add(service.submit(task));
+		try {
+			for (int i = 0; i < executorCount; ++i) {
+				// Executors may move between threads, so they each need their own read position
+				Supplier<In> input = (supplier instanceof PartitionedSupplier ? ((PartitionedSupplier<In>)supplier).createReader() : supplier);
+				StageWorker worker = createExecutor(input);
+				execution.submit(worker);
+			}
+		} catch (Throwable e) {
+			execution.abort(e);
+		}
+		
+		return execution.stageFuture;
+	}
+	
+	/**
+	 * Closes an instance if it is {@link AutoCloseable}
+	 * @param instance The instance to close. May be null
+	 */
+	static void closeInstance(Object instance) {
+		if (instance instanceof AutoCloseable) {
+			try {
+				((AutoCloseable)instance).close();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException("Unable to close " + instance, e);
+			}
+		}
+	}
+	
+	/**
+	 * Tracks the executors of a single execution of this stage
+	 * @author schmoller
+	 */
+	private class StageExecution {
+		private final ListeningExecutorService service;
+		private final int threadCount;
+		private final int executorCount;
+		private final long traceBegin;
+		
+		private final SettableFuture<Void> stageFuture;
+		private final List<ListenableFuture<?>> futures;
+		private final AtomicInteger remaining;
+		private final AtomicReference<Throwable> failure;
+		
+		public StageExecution(ListeningExecutorService service, int threadCount, int executorCount, long traceBegin) {
+			this.service = service;
+			this.threadCount = threadCount;
+			this.executorCount = executorCount;
+			this.traceBegin = traceBegin;
+			
+			stageFuture = SettableFuture.create();
+			futures = Collections.synchronizedList(Lists.newArrayList());
+			remaining = new AtomicInteger(executorCount);
+			failure = new AtomicReference<>();
+			
+			// Cancelling the stage stops all executors
+			stageFuture.addListener(() -> {
+				if (stageFuture.isCancelled()) {
+					cancelAll();
+				}
+			}, MoreExecutors.directExecutor());
 		}
 		
-		// Wait for all tasks to terminate
-		for (ListenableFuture<?> future : futures) {
+		/**
+		 * Submits the worker to the service. When running on a {@link TaskScheduler} job
+		 * the worker is run in chunks so that other jobs can run between them
+		 */
+		public void submit(StageWorker worker) {
+			TrackedWorker tracked = new TrackedWorker(worker, this);
+			
+			ListenableFuture<?> future;
+			if (service instanceof TaskScheduler.Job) {
+				future = new ChunkedExecution(tracked, service, ((TaskScheduler.Job)service).getChunkSize()).start();
+			} else {
+				future = service.submit(tracked);
+			}
+			
+			futures.add(future);
+			
+			// A worker that is cancelled before it starts will never stop by itself
+			future.addListener(tracked::cancelled, MoreExecutors.directExecutor());
+			
+			if (stageFuture.isDone()) {
+				future.cancel(true);
+			}
+		}
+		
+		/**
+		 * Stops the stage before all executors could be submitted
+		 * @param e The cause
+		 */
+		public void abort(Throwable e) {
+			failed(e);
+			
+			// The executors that were never created have already stopped
+			for (int i = futures.size(); i < executorCount; ++i) {
+				stopped();
+			}
+		}
+		
+		/**
+		 * Records a failure and stops the remaining executors as their results will not be used
+		 */
+		public void failed(Throwable e) {
+			if (failure.compareAndSet(null, e)) {
+				cancelAll();
+			}
+		}
+		
+		/**
+		 * Called once for each executor when it will no longer run
+		 */
+		public void stopped() {
+			if (remaining.decrementAndGet() != 0) {
+				return;
+			}
+			
+			// Every executor has stopped so nothing is using the shared resources
+			Throwable cause = failure.get();
 			try {
-				future.get();
-			} catch (InterruptedException e) {
+				cleanup();
+			} catch (Throwable e) {
+				if (cause == null) {
+					cause = e;
+				} else {
+					cause.addSuppressed(e);
+				}
+			}
+			
+			// The stage span ends at the barrier, the gap after the other executors is the straggler time
+			tracer.endStage("stage", name, traceBegin);
+			
+			if (cause != null) {
+				stageFuture.setException(cause);
+			} else if (!stageFuture.isDone()) {
+				try {
+					// Process results
+					stageFuture.setFuture(postExecute(service, threadCount));
+				} catch (Throwable e) {
+					stageFuture.setException(e);
+				}
+			}
+		}
+		
+		private void cancelAll() {
+			synchronized (futures) {
+				for (ListenableFuture<?> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Wraps a worker to report when it has stopped or failed
+	 * @author schmoller
+	 */
+	private class TrackedWorker implements StageWorker {
+		private static final int NEW = 0;
+		private static final int RUNNING = 1;
+		private static final int STOPPED = 2;
+		
+		private final StageWorker worker;
+		private final StageExecution execution;
+		private final AtomicInteger state;
+		
+		public TrackedWorker(StageWorker worker, StageExecution execution) {
+			this.worker = worker;
+			this.execution = execution;
+			state = new AtomicInteger(NEW);
+		}
+		
+		@Override
+		public boolean process(int maxItems) {
+			if (state.get() == STOPPED || (state.get() == NEW && !state.compareAndSet(NEW, RUNNING))) {
+				return false;
+			}
+			
+			long traceBegin = tracer.begin();
+			try {
+				return worker.process(maxItems);
+			} catch (Throwable e) {
+				execution.failed(e);
 				throw e;
-			} catch (ExecutionException e) {
+			} finally {
+				tracer.end("executor", name, traceBegin);
+			}
+		}
+		
+		@Override
+		public void close() {
+			if (state.getAndSet(STOPPED) != RUNNING) {
+				return;
+			}
+			
+			try {
+				worker.close();
+			} catch (Throwable e) {
+				execution.failed(e);
 				throw e;
+			} finally {
+				execution.stopped();
 			}
 		}
 		
-		// Process results
-		postExecute(service, threadCount);
+		/**
+		 * Called once the future of this worker is complete
+		 */
+		public void cancelled() {
+			if (state.compareAndSet(NEW, STOPPED)) {
+				execution.stopped();
+			}
+		}
+	}
+	
+	/**
+	 * Runs a worker one chunk at a time, submitting the next chunk
+	 * to the back of the queue after each one.
+	 * @author schmoller
+	 */
+	private static class ChunkedExecution extends AbstractFuture<Void> implements Runnable {
+		private final StageWorker worker;
+		private final Executor executor;
+		private final int chunkSize;
+		
+		public ChunkedExecution(StageWorker worker, Executor executor, int chunkSize) {
+			this.worker = worker;
+			this.executor = executor;
+			this.chunkSize = chunkSize;
+		}
+		
+		public ChunkedExecution start() {
+			executor.execute(this);
+			return this;
+		}
+		
+		@Override
+		public void run() {
+			if (isDone()) {
+				worker.close();
+				return;
+			}
+			
+			try {
+				if (worker.process(chunkSize)) {
+					executor.execute(this);
+				} else {
+					worker.close();
+					set(null);
+				}
+			} catch (Throwable e) {
+				try {
+					worker.close();
+				} finally {
+					setException(e);
+				}
+			}
+		}
 	}
 }
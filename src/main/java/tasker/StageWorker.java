@@ -0,0 +1,35 @@
+package tasker;
+
+/**
+ * Processes the items of a stage on a single thread.
+ * Work can be done in chunks so that the thread can be
+ * given up between them.
+ * @author schmoller
+ */
+interface StageWorker extends Runnable {
+	/**
+	 * Processes items until there are none left or the limit is reached
+	 * @param maxItems The maximum number of items to process
+	 * @return True if there may be more items to process
+	 */
+	boolean process(int maxItems);
+	
+	/**
+	 * Releases any instances held by this worker.
+	 * This is called once the worker will not be used again
+	 */
+	default void close() {
+		// Nothing to do
+	}
+	
+	@Override
+	default void run() {
+		try {
+			while (process(Integer.MAX_VALUE)) {
+				// Keep going until the input is exhausted
+			}
+		} finally {
+			close();
+		}
+	}
+}
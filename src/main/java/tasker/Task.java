@@ -1,89 +1,354 @@
 package tasker;
 
-import java.util.concurrent.ExecutionException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
-import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 class Task<In> implements ItemTasker<In> {
 	private final Supplier<In> supplier;
 	private Stage<In> firstStage;
 	
 	private final int maxThreads;
+	private final ExecutorService baseService;
 	private final ListeningExecutorService executorService;
 	private final boolean shutdownOnCompletion;
+	private final Tracer tracer;
+	private final boolean lowFootprint;
+	private int stageCount;
 	
-	public Task(int threadCount, ExecutorService baseService, boolean shutdownOnCompletion, Supplier<In> supplier) {
+	// Guarded by this
+	private final Map<Stage<?>, SettableFuture<Void>> pendingTerminals;
+	private final List<Task<?>> merged;
+	private Task<?> owner;
+	
+	public Task(int threadCount, ExecutorService baseService, boolean shutdownOnCompletion, Tracer tracer, boolean lowFootprint, Supplier<In> supplier) {
 		this.supplier = supplier;
 		this.maxThreads = threadCount;
 		this.shutdownOnCompletion = shutdownOnCompletion;
+		this.tracer = tracer;
+		this.lowFootprint = lowFootprint;
 		
+		this.baseService = baseService;
 		executorService = MoreExecutors.listeningDecorator(baseService);
+		pendingTerminals = Maps.newIdentityHashMap();
+		merged = Lists.newArrayList();
 	}
 	
-	public ConsumingTask intoConsumer(Consumer<? super In> consumer) {
-		return intoConsumer(() -> consumer, InstanceOptions.Single);
+	public GovernableTask intoConsumer(Consumer<? super In> consumer) {
+		// The consumer belongs to the caller, it is not closed
+		ConsumingStage<In> next = new ConsumingStage<>(this, () -> consumer, InstanceOptions.Single, false);
+		firstStage = next;
+		return next;
 	}
 
-	public ConsumingTask intoConsumer(Supplier<? extends Consumer<? super In>> consumerSupplier) {
+	public GovernableTask intoConsumer(Supplier<? extends Consumer<? super In>> consumerSupplier) {
 		return intoConsumer(consumerSupplier, InstanceOptions.PerThread);
 	}
 
-	public ConsumingTask intoConsumer(Supplier<? extends Consumer<? super In>> consumerSupplier, InstanceOptions options) {
+	public GovernableTask intoConsumer(Supplier<? extends Consumer<? super In>> consumerSupplier, InstanceOptions options) {
 		ConsumingStage<In> next = new ConsumingStage<>(this, consumerSupplier, options);
 		firstStage = next;
 		return next;
 	}
+	
+	public GovernableTask intoSerialConsumer(Consumer<? super In> consumer) {
+		SerialConsumingStage<In> next = new SerialConsumingStage<>(this, consumer);
+		firstStage = next;
+		return next;
+	}
+	
+	public ConsumingTask intoFileSink(Path file, RecordEncoder<? super In> encoder) {
+		return intoFileSink(file, encoder, WriteOrder.Unordered);
+	}
+	
+	public ConsumingTask intoFileSink(Path file, RecordEncoder<? super In> encoder, WriteOrder order) {
+		FileSinkStage<In> next = new FileSinkStage<>(this, file, encoder, order);
+		firstStage = next;
+		return next;
+	}
 
-	public <R> OutputtingTask<R> intoFunction(Function<? super In, ? extends R> function) {
-		return intoFunction(() -> function, InstanceOptions.Single);
+	public <R> SpeculativeTask<R> intoFunction(Function<? super In, ? extends R> function) {
+		// The function belongs to the caller, it is not closed
+		OutputtingStage<In, R> next = new OutputtingStage<>(this, () -> function, InstanceOptions.Single, false);
+		firstStage = next;
+		return next;
 	}
 
-	public <R> OutputtingTask<R> intoFunction(Supplier<? extends Function<? super In, ? extends R>> functionSupplier) {
+	public <R> SpeculativeTask<R> intoFunction(Supplier<? extends Function<? super In, ? extends R>> functionSupplier) {
 		return intoFunction(functionSupplier, InstanceOptions.PerThread);
 	}
 
-	public <R> OutputtingTask<R> intoFunction(Supplier<? extends Function<? super In, ? extends R>> functionSupplier, InstanceOptions options) {
+	public <R> SpeculativeTask<R> intoFunction(Supplier<? extends Function<? super In, ? extends R>> functionSupplier, InstanceOptions options) {
 		OutputtingStage<In, R> next = new OutputtingStage<>(this, functionSupplier, options);
 		firstStage = next;
 		return next;
 	}
 	
+	public <R> OutputtingTask<R> intoRemoteFunction(ProcessPool pool, SerializableSupplier<? extends Function<? super In, ? extends R>> functionFactory) {
+		RemoteStage<In, R> next = new RemoteStage<>(this, pool, functionFactory);
+		firstStage = next;
+		return next;
+	}
+	
+	public <E> RingTask<E> intoRing(int size, Supplier<? extends E> eventFactory, EventTranslator<? super In, ? super E> translator) {
+		RingStage<In, E> next = new RingStage<>(this, size, eventFactory, translator);
+		firstStage = next;
+		return next;
+	}
+	
+	public Tracer getTracer() {
+		return tracer;
+	}
+	
 	/**
-	 * Executes the entire task
-	 * @return A future that will complete once the task execution is finished
+	 * Gives each stage a number in the order they are added, used to name them in traces
+	 * @return The number of the next stage
 	 */
-	public ListenableFuture<Void> executeTask() {
-		TaskController controller = new TaskController();
-		executorService.submit(controller);
-		return controller;
+	int nextStageNumber() {
+		return ++stageCount;
 	}
 	
-	private class TaskController extends AbstractFuture<Void> implements Runnable {
-
-		@Override
-		public void run() {
-			try {
-				firstStage.executeStage(supplier, executorService, maxThreads);
-				if (shutdownOnCompletion) {
-					executorService.shutdown();
+	/**
+	 * @return True if each stage passes its results to the next as they are produced,
+	 *         rather than the next stage starting once it is complete
+	 */
+	boolean isStreaming() {
+		return false;
+	}
+	
+	/**
+	 * @return The most threads the service can run at once, or {@link Integer#MAX_VALUE} if it is not known to be limited
+	 */
+	int getServiceThreadLimit() {
+		if (baseService instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor)baseService).getMaximumPoolSize();
+		}
+		
+		return Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * @return True if results passed between stages should be released as they are read
+	 *         rather than held until the next stage is complete
+	 */
+	boolean isLowFootprint() {
+		return lowFootprint;
+	}
+	
+	/**
+	 * Merges another task into this one. The stages of the other task are run
+	 * whenever this task is, and its terminals are counted as terminals of this task.
+	 * @param other The task whose stages lead into a stage of this task
+	 */
+	synchronized void merge(Task<?> other) {
+		if (owner != null) {
+			owner.merge(other);
+			return;
+		}
+		
+		if (other == this || other.owner == this) {
+			return;
+		}
+		
+		Preconditions.checkArgument(other.owner == null, "The task has already been merged into another task");
+		
+		synchronized (other) {
+			other.owner = this;
+			merged.add(other);
+			
+			// Anything merged into the other task now belongs to this one
+			for (Task<?> task : other.merged) {
+				task.owner = this;
+				merged.add(task);
+			}
+			other.merged.clear();
+		}
+	}
+	
+	/**
+	 * Executes the entire task once every terminal stage has been executed. A task
+	 * with a single branch has one terminal so it starts straight away. Stages are
+	 * started as the previous stage completes so no thread is used to wait on them.
+	 * @param terminal The stage that ends the branch being executed
+	 * @return A future that will complete once the terminal, and every stage before it, is finished
+	 */
+	public ListenableFuture<Void> executeTask(Stage<?> terminal) {
+		if (owner != null) {
+			return owner.executeTask(terminal);
+		}
+		
+		SettableFuture<Void> terminalFuture = SettableFuture.create();
+		Map<Stage<?>, SettableFuture<Void>> terminals;
+		synchronized (this) {
+			pendingTerminals.put(terminal, terminalFuture);
+			if (pendingTerminals.size() < countTerminals()) {
+				return terminalFuture;
+			}
+			
+			terminals = Maps.newHashMap(pendingTerminals);
+			pendingTerminals.clear();
+		}
+		
+		if (terminals.size() > 1) {
+			// Each branch completes as soon as it is finished
+			for (Map.Entry<Stage<?>, SettableFuture<Void>> entry : terminals.entrySet()) {
+				entry.getKey().setTerminalFuture(entry.getValue());
+			}
+		}
+		
+		ListenableFuture<Void> runFuture = executeRoots();
+		
+		if (terminals.size() == 1) {
+			// Cancelling the task will cancel the running stage
+			terminalFuture.setFuture(runFuture);
+			return terminalFuture;
+		}
+		
+		for (SettableFuture<Void> future : terminals.values()) {
+			// Branches that never started are given the failure that stopped them
+			Futures.addCallback(runFuture, new FutureCallback<Void>() {
+				@Override
+				public void onSuccess(Void result) {
+					// Nothing to do, the branch completes itself
+				}
+				
+				@Override
+				public void onFailure(Throwable t) {
+					if (runFuture.isCancelled()) {
+						future.cancel(false);
+					} else {
+						future.setException(t);
+					}
+				}
+			});
+			
+			// Cancelling any branch cancels the task
+			future.addListener(() -> {
+				if (future.isCancelled()) {
+					runFuture.cancel(true);
+				}
+			}, MoreExecutors.directExecutor());
+		}
+		
+		return terminalFuture;
+	}
+	
+	/**
+	 * Checks that executing a terminal stage will start the task, so that waiting on it cannot block forever
+	 * @param terminal The stage that ends the branch about to be executed
+	 * @throws IllegalStateException Thrown if another branch of the task has not been executed yet
+	 */
+	public void checkStartsTask(Stage<?> terminal) {
+		if (owner != null) {
+			owner.checkStartsTask(terminal);
+			return;
+		}
+		
+		synchronized (this) {
+			int executed = pendingTerminals.size() + (pendingTerminals.containsKey(terminal) ? 0 : 1);
+			Preconditions.checkState(executed >= countTerminals(), "Every other branch must be executed before waiting on this one, otherwise the task never starts");
+		}
+	}
+	
+	/**
+	 * Starts the first stage of this task and of every task merged into it
+	 * @return A future that completes once every stage is complete
+	 */
+	private ListenableFuture<Void> executeRoots() {
+		if (merged.isEmpty()) {
+			return executeRoot();
+		}
+		
+		List<ListenableFuture<Void>> rootFutures = Lists.newArrayList();
+		rootFutures.add(executeRoot());
+		for (Task<?> task : merged) {
+			rootFutures.add(task.executeRoot());
+		}
+		
+		ListenableFuture<List<Void>> all = Futures.allAsList(rootFutures);
+		
+		// Merged stages wait on every root, so one that fails must stop the others
+		Futures.addCallback(all, new FutureCallback<List<Void>>() {
+			@Override
+			public void onSuccess(List<Void> results) {
+				// Nothing to do
+			}
+			
+			@Override
+			public void onFailure(Throwable t) {
+				for (ListenableFuture<Void> future : rootFutures) {
+					future.cancel(true);
 				}
-				set(null);
-			} catch (ExecutionException e) {
-				// Pass the real cause in, no need for the intermediary
-				setException(e.getCause());
-			} catch (InterruptedException e) {
-				// Interrupt this thread too
-				Thread.currentThread().interrupt();
-			} catch (Throwable e) {
-				setException(e);
+			}
+		});
+		
+		return Futures.transform(all, (List<Void> results) -> (Void)null);
+	}
+	
+	/**
+	 * Starts the first stage of this task on its own supplier and service
+	 * @return A future that completes once every stage that follows it is complete
+	 */
+	private ListenableFuture<Void> executeRoot() {
+		ListenableFuture<Void> stageFuture = firstStage.executeStage(supplier, executorService, maxThreads);
+		
+		// Sources that hold resources are released once the task is done
+		if (supplier instanceof AutoCloseable) {
+			stageFuture.addListener(() -> Stage.closeInstance(supplier), MoreExecutors.directExecutor());
+		}
+		
+		if (shutdownOnCompletion) {
+			stageFuture.addListener(executorService::shutdown, MoreExecutors.directExecutor());
+		}
+		
+		return stageFuture;
+	}
+	
+	/**
+	 * Counts the stages that no other stage follows, in this task and every task merged into it
+	 */
+	private int countTerminals() {
+		Set<Stage<?>> visited = Sets.newIdentityHashSet();
+		Deque<Stage<?>> remaining = new ArrayDeque<>();
+		remaining.add(firstStage);
+		for (Task<?> task : merged) {
+			remaining.add(task.firstStage);
+		}
+		
+		int count = 0;
+		while (!remaining.isEmpty()) {
+			Stage<?> stage = remaining.pop();
+			if (!visited.add(stage)) {
+				continue;
+			}
+			
+			List<? extends Stage<?>> next = stage.getNextStages();
+			if (next.isEmpty()) {
+				++count;
+			} else {
+				remaining.addAll(next);
 			}
 		}
+		
+		return count;
 	}
 }
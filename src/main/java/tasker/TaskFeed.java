@@ -0,0 +1,61 @@
+package tasker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defines a task that runs until it is closed, taking items from any number
+ * of threads as they are offered.
+ * <p>
+ * The stages of the task are set up as with any other task and it is executed
+ * once. Its executors then stay alive and wait for items while the feed is empty,
+ * and each stage hands its results to the next as they are produced rather than
+ * once the stage is complete. Closing the feed lets the executors drain every item
+ * that was accepted, after which the task completes as usual.
+ * <p>
+ * Items are held in a bounded queue that producers and executors use without locking.
+ * @author schmoller
+ *
+ * @param <T> The item type
+ * @see Tasker#feed(int)
+ */
+public interface TaskFeed<T> extends ItemTasker<T>, AutoCloseable {
+	/**
+	 * Adds an item if there is room for it
+	 * @param item The item to add
+	 * @return True if the item was added, false if the feed is full
+	 * @throws IllegalStateException Thrown if the feed is closed
+	 */
+	boolean tryOffer(T item);
+	
+	/**
+	 * Adds an item, waiting for room if the feed is full
+	 * @param item The item to add
+	 * @throws InterruptedException Thrown if interrupted while waiting
+	 * @throws IllegalStateException Thrown if the feed is closed
+	 */
+	void offer(T item) throws InterruptedException;
+	
+	/**
+	 * Adds an item, waiting up to the timeout for room if the feed is full
+	 * @param item The item to add
+	 * @param timeout The longest time to wait
+	 * @param unit The unit of the timeout
+	 * @return True if the item was added, false if there was no room before the timeout
+	 * @throws InterruptedException Thrown if interrupted while waiting
+	 * @throws IllegalStateException Thrown if the feed is closed
+	 */
+	boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException;
+	
+	/**
+	 * Stops accepting items. Items that were already accepted are still processed
+	 * and the task completes once they are. The feed is also closed if the task fails
+	 * or is cancelled.
+	 */
+	@Override
+	void close();
+	
+	/**
+	 * @return True if the feed no longer accepts items
+	 */
+	boolean isClosed();
+}
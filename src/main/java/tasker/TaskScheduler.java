@@ -0,0 +1,337 @@
+package tasker;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractListeningExecutorService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A fixed set of threads that can be shared between many tasks.
+ * Tasks are given a {@link Priority} and a weight. Work from a higher priority
+ * always runs first, and tasks of the same priority share the threads in proportion
+ * to their weight. Stage executors give up their thread after each chunk of items
+ * so the share of each task is adjusted while it is running.
+ * @author schmoller
+ * @see Tasker#withScheduler(TaskScheduler, Priority, int)
+ */
+public class TaskScheduler {
+	/**
+	 * The number of items processed by an executor before it gives up its thread
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 256;
+	
+	private final int chunkSize;
+	private final Thread[] threads;
+	
+	private final ReentrantLock lock;
+	private final Condition workAvailable;
+	private final Condition jobFinished;
+	
+	// Guarded by lock, the jobs that have work queued or running
+	private final List<Job> jobs;
+	private int running;
+	private boolean shutdown;
+	
+	/**
+	 * Creates a scheduler with the given number of threads
+	 * @param threadCount The number of threads to share between all tasks
+	 */
+	public TaskScheduler(int threadCount) {
+		this(threadCount, DEFAULT_CHUNK_SIZE, new ThreadFactoryBuilder().setNameFormat("tasker-scheduler-%d").setDaemon(true).build());
+	}
+	
+	/**
+	 * Creates a scheduler with the given number of threads
+	 * @param threadCount The number of threads to share between all tasks
+	 * @param chunkSize The number of items processed by an executor before it gives up its thread.
+	 *                  Smaller chunks allow the scheduler to react faster at the expense of some overhead
+	 * @param factory The factory to create the threads with
+	 */
+	public TaskScheduler(int threadCount, int chunkSize, ThreadFactory factory) {
+		Preconditions.checkArgument(threadCount > 0, "Thread count cannot be less than 1");
+		Preconditions.checkArgument(chunkSize > 0, "Chunk size cannot be less than 1");
+		Preconditions.checkNotNull(factory);
+		
+		this.chunkSize = chunkSize;
+		
+		lock = new ReentrantLock();
+		workAvailable = lock.newCondition();
+		jobFinished = lock.newCondition();
+		jobs = Lists.newArrayList();
+		
+		threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; ++i) {
+			threads[i] = factory.newThread(this::runWorker);
+			threads[i].start();
+		}
+	}
+	
+	/**
+	 * Stops the scheduler once all work that has been submitted is complete.
+	 * No more tasks may be started on this scheduler.
+	 */
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			workAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Creates a new job to run a task on
+	 * @param priority The priority class of the job
+	 * @param weight The share of the threads this job receives relative to other jobs of the same priority
+	 * @return The job
+	 */
+	Job createJob(Priority priority, int weight) {
+		Preconditions.checkNotNull(priority);
+		Preconditions.checkArgument(weight > 0, "Weight cannot be less than 1");
+		
+		lock.lock();
+		try {
+			Preconditions.checkState(!shutdown, "This scheduler has been shutdown");
+			
+			// The job is only tracked while it has work, so a task that is never executed holds nothing
+			return new Job(priority, weight);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private void runWorker() {
+		while (true) {
+			Job job;
+			Runnable work;
+			
+			lock.lock();
+			try {
+				job = selectJob();
+				while (job == null) {
+					// Running work may still submit more
+					if (shutdown && running == 0) {
+						return;
+					}
+					
+					workAvailable.awaitUninterruptibly();
+					job = selectJob();
+				}
+				
+				work = job.queue.pollFirst();
+				++job.running;
+				++running;
+			} finally {
+				lock.unlock();
+			}
+			
+			long start = System.nanoTime();
+			try {
+				work.run();
+			} catch (Throwable e) {
+				// Submitted work handles its own failures, a thread must not be lost to this
+				Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+			}
+			long elapsed = System.nanoTime() - start;
+			
+			lock.lock();
+			try {
+				--job.running;
+				--running;
+				job.virtualTime += elapsed / job.weight;
+				
+				if (job.isIdle()) {
+					jobs.remove(job);
+					if (job.jobShutdown) {
+						jobFinished.signalAll();
+					}
+				}
+				
+				if (shutdown && running == 0) {
+					workAvailable.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Picks the job with queued work from the highest priority class
+	 * that has had the least time relative to its weight.
+	 * Must be called while holding the lock
+	 */
+	private Job selectJob() {
+		Job best = null;
+		for (Job job : jobs) {
+			if (job.queue.isEmpty()) {
+				continue;
+			}
+			
+			if (best == null) {
+				best = job;
+			} else {
+				int compare = job.priority.compareTo(best.priority);
+				if (compare < 0 || (compare == 0 && job.virtualTime < best.virtualTime)) {
+					best = job;
+				}
+			}
+		}
+		
+		return best;
+	}
+	
+	/**
+	 * Gets the least virtual time of any job that has work in the same priority class.
+	 * Must be called while holding the lock
+	 */
+	private long minimumVirtualTime(Priority priority, Job exclude) {
+		long minimum = Long.MAX_VALUE;
+		for (Job job : jobs) {
+			if (job != exclude && job.priority == priority && (!job.queue.isEmpty() || job.running > 0)) {
+				minimum = Math.min(minimum, job.virtualTime);
+			}
+		}
+		
+		return minimum;
+	}
+	
+	/**
+	 * The work of a single task on the scheduler
+	 * @author schmoller
+	 */
+	class Job extends AbstractListeningExecutorService {
+		private final Priority priority;
+		private final int weight;
+		
+		// Guarded by lock
+		private final ArrayDeque<Runnable> queue;
+		private int running;
+		private long virtualTime;
+		private boolean jobShutdown;
+		
+		private Job(Priority priority, int weight) {
+			this.priority = priority;
+			this.weight = weight;
+			queue = new ArrayDeque<>();
+		}
+		
+		int getChunkSize() {
+			return chunkSize;
+		}
+		
+		@Override
+		public void execute(Runnable command) {
+			Preconditions.checkNotNull(command);
+			
+			lock.lock();
+			try {
+				if (jobShutdown) {
+					throw new RejectedExecutionException("This job has been shutdown");
+				}
+				
+				if (isIdle()) {
+					// Work already running may still submit more, but nothing new may start once the threads may have stopped
+					if (shutdown) {
+						throw new RejectedExecutionException("The scheduler has been shutdown");
+					}
+					
+					// An idle job may not bank time to use later, it catches up to the others
+					long minimum = minimumVirtualTime(priority, this);
+					if (minimum != Long.MAX_VALUE) {
+						virtualTime = Math.max(virtualTime, minimum);
+					}
+					jobs.add(this);
+				}
+				
+				queue.addLast(command);
+				workAvailable.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public void shutdown() {
+			lock.lock();
+			try {
+				jobShutdown = true;
+				if (isIdle()) {
+					jobs.remove(this);
+					jobFinished.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public List<Runnable> shutdownNow() {
+			lock.lock();
+			try {
+				List<Runnable> remaining = Lists.newArrayList(queue);
+				queue.clear();
+				shutdown();
+				return remaining;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public boolean isShutdown() {
+			lock.lock();
+			try {
+				return jobShutdown;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public boolean isTerminated() {
+			lock.lock();
+			try {
+				return jobShutdown && isIdle();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * Must be called while holding the lock
+		 * @return True if the job has no work queued or running
+		 */
+		private boolean isIdle() {
+			return queue.isEmpty() && running == 0;
+		}
+		
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			long remaining = unit.toNanos(timeout);
+			
+			lock.lock();
+			try {
+				while (!isTerminated()) {
+					if (remaining <= 0) {
+						return false;
+					}
+					remaining = jobFinished.awaitNanos(remaining);
+				}
+				
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -1,11 +1,20 @@
 package tasker;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.function.Supplier;
 
+import org.reactivestreams.Publisher;
+
 import com.google.common.base.Preconditions;
 
 /**
@@ -18,6 +27,11 @@ public class Tasker {
 	private int threadCount = UNDEFINED;
 	private ThreadFactory threadFactory = null;
 	private ExecutorService threadService = null;
+	private TaskScheduler scheduler = null;
+	private Priority schedulerPriority = null;
+	private int schedulerWeight;
+	private Tracer tracer = Tracer.DISABLED;
+	private boolean lowFootprint = false;
 	
 	/**
 	 * Configures the tasker to use the given number of 
@@ -53,6 +67,7 @@ public class Tasker {
 	 */
 	public Tasker withService(ExecutorService service) {
 		Preconditions.checkState(threadFactory == null, "Cannot use both an ExecutorService and a ThreadFactory");
+		Preconditions.checkState(scheduler == null, "Cannot use both an ExecutorService and a TaskScheduler");
 		threadService = service;
 		return this;
 	}
@@ -64,19 +79,81 @@ public class Tasker {
 	 */
 	public Tasker withThreadFactory(ThreadFactory factory) {
 		Preconditions.checkState(threadService == null, "Cannot use both an ExecutorService and a ThreadFactory");
+		Preconditions.checkState(scheduler == null, "Cannot use both a ThreadFactory and a TaskScheduler");
 		threadFactory = factory;
 		return this;
 	}
 	
+	/**
+	 * Configures the tasker to run on a scheduler that is shared with other tasks
+	 * using {@link Priority#Normal} and a weight of 1.
+	 * @param scheduler The scheduler to use
+	 * @return this for chaining
+	 */
+	public Tasker withScheduler(TaskScheduler scheduler) {
+		return withScheduler(scheduler, Priority.Normal, 1);
+	}
+	
+	/**
+	 * Configures the tasker to run on a scheduler that is shared with other tasks.
+	 * The number of threads from {@link #usingThreads(int)} is the number of executors
+	 * each stage uses, the scheduler decides how many of those run at once.
+	 * @param scheduler The scheduler to use
+	 * @param priority The priority class of the tasks
+	 * @param weight The share of the scheduler threads given to each task relative to other tasks of the same priority
+	 * @return this for chaining
+	 */
+	public Tasker withScheduler(TaskScheduler scheduler, Priority priority, int weight) {
+		Preconditions.checkState(threadService == null, "Cannot use both an ExecutorService and a TaskScheduler");
+		Preconditions.checkState(threadFactory == null, "Cannot use both a ThreadFactory and a TaskScheduler");
+		Preconditions.checkNotNull(scheduler);
+		Preconditions.checkNotNull(priority);
+		Preconditions.checkArgument(weight > 0, "Weight cannot be less than 1");
+		
+		this.scheduler = scheduler;
+		schedulerPriority = priority;
+		schedulerWeight = weight;
+		return this;
+	}
+	
+	/**
+	 * Configures the tasker to record a timeline of each task into a tracer.
+	 * The tracer may be shared between tasks.
+	 * @param tracer The tracer to record into
+	 * @return this for chaining
+	 */
+	public Tasker withTracer(Tracer tracer) {
+		Preconditions.checkNotNull(tracer);
+		
+		this.tracer = tracer;
+		return this;
+	}
+	
+	/**
+	 * Configures the tasker to hold as little as possible while a task runs.
+	 * Collections are read in place rather than copied, so they must not be changed
+	 * while the task runs, and results passed between stages are released in chunks
+	 * as the next stage reads them rather than once it is complete.
+	 * @return this for chaining
+	 */
+	public Tasker withLowFootprint() {
+		lowFootprint = true;
+		return this;
+	}
+	
 	/**
 	 * Creates a task that consumes the given items
 	 * @param items The items to consume
 	 * @return The tasker
 	 */
 	public <T> ItemTasker<T> consume(Iterable<T> items) {
-		// Use queue based approach for collections
+		// Collections are read in place in low footprint mode, otherwise they are copied into a queue
 		Supplier<T> supplier;
-		if (items instanceof Collection<?>) {
+		if (lowFootprint && items instanceof List<?> && items instanceof RandomAccess) {
+			supplier = new ListSupplier<T>((List<T>)items);
+		} else if (lowFootprint) {
+			supplier = new IterableSupplier<T>(items);
+		} else if (items instanceof Collection<?>) {
 			supplier = new QueueSupplier<T>((Collection<T>)items);
 		} else {
 			supplier = new IterableSupplier<T>(items);
@@ -85,6 +162,69 @@ public class Tasker {
 		return consume(supplier);
 	}
 	
+	/**
+	 * Creates a task that consumes each line of a UTF-8 file.
+	 * The file is memory mapped and split between the threads so that 
+	 * each thread reads its own part of the file.
+	 * @param file The file to read
+	 * @return The tasker
+	 * @throws IOException Thrown if the file cannot be mapped
+	 */
+	public ItemTasker<CharSequence> consumeLines(Path file) throws IOException {
+		return consumeLines(file, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Creates a task that consumes each line of a file.
+	 * The file is memory mapped and split between the threads so that 
+	 * each thread reads its own part of the file.
+	 * @param file The file to read
+	 * @param charset The charset of the file. This must encode a line feed as a single byte
+	 * @return The tasker
+	 * @throws IOException Thrown if the file cannot be mapped
+	 */
+	public ItemTasker<CharSequence> consumeLines(Path file, Charset charset) throws IOException {
+		return consume(new MappedFileSupplier<>(file, RecordDelimiter.newLine(), () -> MappedFileSupplier.lineDecoder(charset), MappedFileSupplier.DEFAULT_SEGMENT_SIZE));
+	}
+	
+	/**
+	 * Creates a task that consumes each record of a file.
+	 * The file is memory mapped and split between the threads so that 
+	 * each thread reads its own part of the file. Records are provided
+	 * as read only slices of the mapped file and are not copied.
+	 * @param file The file to read
+	 * @param delimiter The delimiter between records
+	 * @return The tasker
+	 * @throws IOException Thrown if the file cannot be mapped
+	 */
+	public ItemTasker<ByteBuffer> consumeRecords(Path file, RecordDelimiter delimiter) throws IOException {
+		return consume(new MappedFileSupplier<ByteBuffer>(file, delimiter, () -> record -> record, MappedFileSupplier.DEFAULT_SEGMENT_SIZE));
+	}
+	
+	/**
+	 * Creates a task that consumes the items of a reactive streams publisher.
+	 * Items are requested as the executors take them, so no more than a small
+	 * buffer for each thread is ever held. The publisher is subscribed to once
+	 * the task is executed and the subscription is cancelled if the task fails.
+	 * @param publisher The publisher of the items to consume
+	 * @return The tasker
+	 */
+	public <T> ItemTasker<T> consume(Publisher<? extends T> publisher) {
+		return consume(publisher, Math.max(1, threadCount) * PublisherSupplier.DEFAULT_BUFFER_PER_THREAD);
+	}
+	
+	/**
+	 * Creates a task that consumes the items of a reactive streams publisher.
+	 * The publisher is subscribed to once the task is executed and the 
+	 * subscription is cancelled if the task fails.
+	 * @param publisher The publisher of the items to consume
+	 * @param bufferSize The maximum number of items that are requested from the publisher but not yet taken by an executor
+	 * @return The tasker
+	 */
+	public <T> ItemTasker<T> consume(Publisher<? extends T> publisher, int bufferSize) {
+		return consume(new PublisherSupplier<T>(publisher, bufferSize));
+	}
+	
 	/**
 	 * Creates a task that consumes the results of the supplier.
 	 * The supplier MUST be thread-safe.
@@ -93,17 +233,51 @@ public class Tasker {
 	 * @return The tasker
 	 */
 	public <T> ItemTasker<T> consume(Supplier<T> supplier) {
-		boolean shutdownOnCompletion = false;
-		if (threadService == null) {
-			if (threadFactory == null) {
-				threadService = Executors.newCachedThreadPool();
-			} else {
-				threadService = Executors.newCachedThreadPool(threadFactory);
-			}
-			
-			shutdownOnCompletion = true;
-		}
+		return new Task<>(threadCount, createService(), ownsService(), tracer, lowFootprint, supplier);
+	}
+	
+	/**
+	 * Creates a task that runs until it is closed, consuming items as they are offered
+	 * to it from any thread. The executors wait for items rather than stopping when the
+	 * feed is empty, so a feed cannot be used with a {@link TaskScheduler}.
+	 * @return The feed, which is also used to set up the task
+	 * @see TaskFeed
+	 */
+	public <T> TaskFeed<T> feed() {
+		return feed(Math.max(1, threadCount) * FeedQueue.DEFAULT_CAPACITY_PER_THREAD);
+	}
+	
+	/**
+	 * Creates a task that runs until it is closed, consuming items as they are offered
+	 * to it from any thread. The executors wait for items rather than stopping when the
+	 * feed is empty, so a feed cannot be used with a {@link TaskScheduler}.
+	 * @param capacity The maximum number of items offered but not yet taken by an executor.
+	 *                 This is rounded up to a power of 2
+	 * @return The feed, which is also used to set up the task
+	 * @see TaskFeed
+	 */
+	public <T> TaskFeed<T> feed(int capacity) {
+		Preconditions.checkState(scheduler == null, "A feed holds its threads while it waits so it cannot use a scheduler");
 		
-		return new Task<>(threadCount, threadService, shutdownOnCompletion, supplier);
+		return new FeedTask<>(threadCount, createService(), ownsService(), tracer, lowFootprint, new FeedQueue<T>(capacity));
+	}
+	
+	private ExecutorService createService() {
+		if (scheduler != null) {
+			return scheduler.createJob(schedulerPriority, schedulerWeight);
+		} else if (threadService != null) {
+			return threadService;
+		} else if (threadFactory == null) {
+			return Executors.newCachedThreadPool();
+		} else {
+			return Executors.newCachedThreadPool(threadFactory);
+		}
+	}
+	
+	/**
+	 * @return True if the service is created for each task and should be shut down once it completes
+	 */
+	private boolean ownsService() {
+		return (scheduler != null || threadService == null);
 	}
 }
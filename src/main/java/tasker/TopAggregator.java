@@ -0,0 +1,64 @@
+package tasker;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Aggregator that keeps only the first results according to a comparator.
+ * Each thread keeps a bounded heap whose head is the worst result kept so far,
+ * so each element is either discarded or replaces the head.
+ * @author schmoller
+ *
+ * @param <T> The element type
+ */
+class TopAggregator<T> implements Aggregator<T, PriorityQueue<T>, List<T>> {
+	private final Comparator<? super T> comparator;
+	private final int limit;
+	
+	public TopAggregator(Comparator<? super T> comparator, int limit) {
+		Preconditions.checkNotNull(comparator);
+		Preconditions.checkArgument(limit > 0, "Limit cannot be less than 1");
+		
+		this.comparator = comparator;
+		this.limit = limit;
+	}
+	
+	@Override
+	public PriorityQueue<T> createContainer() {
+		// Reversed so that the head is the worst element kept
+		return new PriorityQueue<>(limit, comparator.reversed());
+	}
+	
+	@Override
+	public void accumulate(PriorityQueue<T> container, T element) {
+		if (container.size() < limit) {
+			container.add(element);
+		} else if (comparator.compare(element, container.peek()) < 0) {
+			container.poll();
+			container.add(element);
+		}
+	}
+	
+	@Override
+	public ListenableFuture<List<T>> combine(List<PriorityQueue<T>> containers, ListeningExecutorService service) {
+		// At most limit elements per thread, this is small enough to do directly
+		PriorityQueue<T> combined = createContainer();
+		for (PriorityQueue<T> container : containers) {
+			for (T element : container) {
+				accumulate(combined, element);
+			}
+		}
+		
+		List<T> result = Lists.newArrayList(combined);
+		result.sort(comparator);
+		
+		return Futures.immediateFuture(result);
+	}
+}
@@ -0,0 +1,285 @@
+package tasker;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Records a timeline of task execution that can be viewed in chrome://tracing or Perfetto.
+ * <p>
+ * Spans are recorded for each stage, each run of a stage executor, collectors and aggregators,
+ * and for a sample of items, both processing them and waiting on the supplier for them.
+ * Each thread records into its own ring buffer without locking, so once a buffer is full
+ * the oldest spans of that thread are overwritten. The spans of every thread that
+ * has been traced are kept until the tracer is discarded, so a tracer is best used for a
+ * single job rather than for the life of the application.
+ * @author schmoller
+ * @see Tasker#withTracer(Tracer)
+ */
+public class Tracer {
+	/**
+	 * The number of spans kept for each thread when no size is given
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+	/**
+	 * The fraction of items traced when no rate is given
+	 */
+	public static final double DEFAULT_ITEM_SAMPLE_RATE = 0.01;
+	
+	/**
+	 * Returned by {@link #begin()} when tracing is disabled
+	 */
+	static final long NOT_TRACED = Long.MIN_VALUE;
+	
+	/**
+	 * A tracer that records nothing, used when a task has no tracer
+	 */
+	static final Tracer DISABLED = new Tracer(1, 0, false);
+	
+	private static final long STAGE_TRACK = 0;
+	
+	private final boolean enabled;
+	private final int bufferSize;
+	private final long sampleInterval;
+	private final long origin;
+	
+	private final ThreadLocal<Ring> rings;
+	private final Queue<Ring> allRings;
+	private final Ring stageRing;
+	
+	/**
+	 * Creates a tracer with the default buffer size that traces 1% of items
+	 */
+	public Tracer() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_ITEM_SAMPLE_RATE, true);
+	}
+	
+	/**
+	 * Creates a tracer
+	 * @param bufferSize The number of spans kept for each thread. This is rounded up to a power of 2
+	 * @param itemSampleRate The fraction of items that are traced, between 0 and 1.
+	 *                       Spans for stages and executors are always recorded
+	 */
+	public Tracer(int bufferSize, double itemSampleRate) {
+		this(bufferSize, itemSampleRate, true);
+	}
+	
+	private Tracer(int bufferSize, double itemSampleRate, boolean enabled) {
+		Preconditions.checkArgument(bufferSize > 0, "Buffer size cannot be less than 1");
+		Preconditions.checkArgument(itemSampleRate >= 0 && itemSampleRate <= 1, "Sample rate must be between 0 and 1");
+		
+		this.enabled = enabled;
+		this.bufferSize = Math.max(1, Integer.highestOneBit(bufferSize - 1) << 1);
+		sampleInterval = (itemSampleRate == 0 ? 0 : Math.max(1, Math.round(1 / itemSampleRate)));
+		origin = System.nanoTime();
+		
+		allRings = new ConcurrentLinkedQueue<>();
+		rings = ThreadLocal.withInitial(() -> {
+			Thread thread = Thread.currentThread();
+			return createRing(thread.getId(), thread.getName());
+		});
+		stageRing = createRing(STAGE_TRACK, "Stages");
+	}
+	
+	private Ring createRing(long track, String name) {
+		Ring ring = new Ring(track, name, (enabled ? bufferSize : 1));
+		allRings.add(ring);
+		return ring;
+	}
+	
+	/**
+	 * @return True if anything is recorded
+	 */
+	boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Decides whether an item is traced
+	 * @param itemNumber The number of items the executor has taken so far
+	 * @return True if the item should be traced
+	 */
+	boolean sampleItem(long itemNumber) {
+		return enabled && sampleInterval != 0 && itemNumber % sampleInterval == 0;
+	}
+	
+	/**
+	 * Starts a span
+	 * @return The start time to pass to {@link #end(String, String, long)}
+	 */
+	long begin() {
+		return (enabled ? System.nanoTime() : NOT_TRACED);
+	}
+	
+	/**
+	 * Ends a span on the current thread
+	 * @param category The category of the span
+	 * @param name The name of the span
+	 * @param begin The start time from {@link #begin()}, or {@link #NOT_TRACED}
+	 */
+	void end(String category, String name, long begin) {
+		if (begin != NOT_TRACED) {
+			rings.get().record(category, name, begin, System.nanoTime());
+		}
+	}
+	
+	/**
+	 * Ends a span that may have started on a different thread.
+	 * These are shown on their own track rather than on the thread that ended them.
+	 * @param category The category of the span
+	 * @param name The name of the span
+	 * @param begin The start time from {@link #begin()}, or {@link #NOT_TRACED}
+	 */
+	void endStage(String category, String name, long begin) {
+		if (begin != NOT_TRACED) {
+			long end = System.nanoTime();
+			// Any thread may end these so they cannot use the single writer ring
+			synchronized (stageRing) {
+				stageRing.record(category, name, begin, end);
+			}
+		}
+	}
+	
+	/**
+	 * Writes every recorded span in the trace event format to a file
+	 * @param file The file to write to
+	 * @throws IOException Thrown if the file cannot be written
+	 */
+	public void writeTo(Path file) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writeTo(writer);
+		}
+	}
+	
+	/**
+	 * Writes every recorded span in the trace event format.
+	 * This may be called while tasks are running, spans that are overwritten
+	 * while writing are left out.
+	 * @param out Where to write to
+	 * @throws IOException Thrown if the output cannot be written
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		out.append("{\"traceEvents\":[");
+		
+		boolean first = true;
+		for (Ring ring : allRings) {
+			if (!first) {
+				out.append(',');
+			}
+			first = false;
+			
+			out.append("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(Long.toString(ring.track))
+				.append(",\"args\":{\"name\":");
+			appendString(out, ring.name);
+			out.append("}}");
+			
+			ring.writeTo(out, origin);
+		}
+		
+		out.append("\n],\"displayTimeUnit\":\"ms\"}\n");
+	}
+	
+	private static void appendString(Appendable out, String value) throws IOException {
+		out.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int)c));
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+	
+	private static String toMicros(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+	}
+	
+	/**
+	 * The spans of a single thread. Only the owning thread records into it.
+	 * The owner publishes when it starts and finishes each span so a reader
+	 * can tell which spans are complete and which may have been overwritten.
+	 * @author schmoller
+	 */
+	private static class Ring {
+		private final long track;
+		private final String name;
+		private final int mask;
+		
+		private final String[] categories;
+		private final String[] names;
+		private final long[] begins;
+		private final long[] ends;
+		private final AtomicLong started;
+		private final AtomicLong count;
+		
+		public Ring(long track, String name, int size) {
+			this.track = track;
+			this.name = name;
+			mask = size - 1;
+			
+			categories = new String[size];
+			names = new String[size];
+			begins = new long[size];
+			ends = new long[size];
+			started = new AtomicLong();
+			count = new AtomicLong();
+		}
+		
+		public void record(String category, String name, long begin, long end) {
+			long index = count.get();
+			int slot = (int)(index & mask);
+			
+			// Must be visible before the slot is overwritten
+			started.set(index + 1);
+			
+			categories[slot] = category;
+			names[slot] = name;
+			begins[slot] = begin;
+			ends[slot] = end;
+			
+			count.lazySet(index + 1);
+		}
+		
+		public void writeTo(Appendable out, long origin) throws IOException {
+			long written = count.get();
+			long first = Math.max(0, written - names.length);
+			
+			int size = (int)(written - first);
+			String[] copiedCategories = new String[size];
+			String[] copiedNames = new String[size];
+			long[] copiedBegins = new long[size];
+			long[] copiedEnds = new long[size];
+			for (int i = 0; i < size; ++i) {
+				int slot = (int)((first + i) & mask);
+				copiedCategories[i] = categories[slot];
+				copiedNames[i] = names[slot];
+				copiedBegins[i] = begins[slot];
+				copiedEnds[i] = ends[slot];
+			}
+			
+			// Anything the owner may have started overwriting while copying is left out
+			long valid = Math.max(first, started.get() - names.length);
+			for (int i = (int)(valid - first); i < size; ++i) {
+				out.append(",\n{\"name\":");
+				appendString(out, copiedNames[i]);
+				out.append(",\"cat\":");
+				appendString(out, copiedCategories[i]);
+				out.append(",\"ph\":\"X\",\"ts\":").append(toMicros(copiedBegins[i] - origin))
+					.append(",\"dur\":").append(toMicros(copiedEnds[i] - copiedBegins[i]))
+					.append(",\"pid\":1,\"tid\":").append(Long.toString(track)).append('}');
+			}
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package tasker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Controls how the workers of a ring wait for events to become available.
+ * @author schmoller
+ */
+public enum WaitStrategy {
+	/**
+	 * Spins without ever giving up the thread.
+	 * This has the lowest latency but each waiting worker uses a whole core.
+	 */
+	BusySpin {
+		@Override
+		void idle(int attempt) {
+			// Nothing to do
+		}
+	},
+	/**
+	 * Spins for a short time then yields the thread to others.
+	 */
+	Yielding {
+		@Override
+		void idle(int attempt) {
+			if (attempt >= SPIN_ATTEMPTS) {
+				Thread.yield();
+			}
+		}
+	},
+	/**
+	 * Spins, then yields, then parks for short periods.
+	 * This uses little CPU while idle at the cost of higher latency.
+	 */
+	Sleeping {
+		@Override
+		void idle(int attempt) {
+			if (attempt >= SPIN_ATTEMPTS * 2) {
+				LockSupport.parkNanos(PARK_NANOS);
+			} else if (attempt >= SPIN_ATTEMPTS) {
+				Thread.yield();
+			}
+		}
+	};
+	
+	private static final int SPIN_ATTEMPTS = 100;
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	
+	/**
+	 * Waits a short while
+	 * @param attempt The number of times this has been called for the current wait
+	 */
+	abstract void idle(int attempt);
+}
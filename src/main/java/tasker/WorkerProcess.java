@@ -0,0 +1,195 @@
+package tasker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * A process that applies stage functions on behalf of a {@link ProcessPool}.
+ * Each connection from the pool runs on its own thread with its own function instance,
+ * in the same way as {@link InstanceOptions#PerThread}.
+ * <p>
+ * Workers are usually forked by the pool. A worker started by hand must have the
+ * same classes available as the task, and is started with
+ * {@code java -cp <classpath> tasker.WorkerProcess <port> [--bind=<address>]}
+ * <p>
+ * A worker only listens on the loopback address unless it is given another address
+ * to bind to. Every connection must first present the token held in the
+ * {@value #TOKEN_VARIABLE} environment variable of the worker, nothing sent by a
+ * connection is deserialized until it has.
+ * @author schmoller
+ * @see ProcessPool#connect(java.util.Collection)
+ */
+public class WorkerProcess {
+	/**
+	 * Printed before the port the worker is listening on
+	 */
+	static final String PORT_PREFIX = "tasker-worker-port:";
+	/**
+	 * Tells the worker to exit once its standard input is closed by the pool that forked it
+	 */
+	static final String FORKED_OPTION = "--forked";
+	/**
+	 * Sets the address the worker listens on
+	 */
+	static final String BIND_OPTION = "--bind=";
+	/**
+	 * The environment variable holding the token that connections must present
+	 */
+	public static final String TOKEN_VARIABLE = "TASKER_WORKER_TOKEN";
+	
+	private static final int HANDSHAKE_TIMEOUT = (int)TimeUnit.SECONDS.toMillis(10);
+	
+	public static void main(String[] args) throws IOException {
+		int port = (args.length > 0 ? Integer.parseInt(args[0]) : 0);
+		boolean forked = false;
+		InetAddress bindAddress = InetAddress.getLoopbackAddress();
+		for (int i = 1; i < args.length; ++i) {
+			if (args[i].equals(FORKED_OPTION)) {
+				forked = true;
+			} else if (args[i].startsWith(BIND_OPTION)) {
+				bindAddress = InetAddress.getByName(args[i].substring(BIND_OPTION.length()));
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		
+		String token = System.getenv(TOKEN_VARIABLE);
+		if (token == null || token.isEmpty()) {
+			throw new IllegalStateException(TOKEN_VARIABLE + " must be set to the token the pool connects with");
+		}
+		byte[] expectedToken = token.getBytes(StandardCharsets.UTF_8);
+		
+		ServerSocket server = new ServerSocket(port, 0, bindAddress);
+		
+		// Only the port goes to the pool, anything the functions print goes to the error stream
+		PrintStream out = System.out;
+		out.println(PORT_PREFIX + server.getLocalPort());
+		out.flush();
+		System.setOut(System.err);
+		
+		if (forked) {
+			Thread watcher = new Thread(() -> exitWhenClosed(System.in), "tasker-worker-watcher");
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+		
+		while (true) {
+			Socket socket = server.accept();
+			
+			Thread thread = new Thread(() -> serve(socket, expectedToken), "tasker-worker-" + socket.getPort());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Exits the process once the stream is closed, so forked workers do not outlive their pool
+	 */
+	private static void exitWhenClosed(InputStream in) {
+		try {
+			while (in.read() != -1) {
+				// Nothing is sent
+			}
+		} catch (IOException e) {
+			// Treated as closed
+		}
+		
+		System.exit(0);
+	}
+	
+	/**
+	 * Handles a single connection. The pool sends its token, the function factory, then any
+	 * number of chunks, and a null chunk once it is finished. Each chunk is answered with either
+	 * the results or the failure.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void serve(Socket socket, byte[] expectedToken) {
+		try (Socket connection = socket) {
+			connection.setTcpNoDelay(true);
+			
+			// Nothing is deserialized until the connection has shown it holds the token
+			connection.setSoTimeout(HANDSHAKE_TIMEOUT);
+			String token = new DataInputStream(connection.getInputStream()).readUTF();
+			if (!MessageDigest.isEqual(expectedToken, token.getBytes(StandardCharsets.UTF_8))) {
+				return;
+			}
+			// Chunks may be far apart when the items arrive slowly
+			connection.setSoTimeout(0);
+			
+			ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+			out.flush();
+			ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(connection.getInputStream()));
+			
+			Function<Object, Object> function;
+			try {
+				SerializableSupplier<? extends Function<Object, Object>> factory = (SerializableSupplier<? extends Function<Object, Object>>)in.readObject();
+				function = factory.get();
+				out.writeObject(null);
+				out.flush();
+			} catch (Exception e) {
+				writeFailure(out, e);
+				return;
+			}
+			
+			try {
+				while (true) {
+					Object[] chunk = (Object[])in.readObject();
+					if (chunk == null) {
+						return;
+					}
+					
+					Object[] results;
+					try {
+						results = new Object[chunk.length];
+						for (int i = 0; i < chunk.length; ++i) {
+							results[i] = function.apply(chunk[i]);
+						}
+					} catch (Throwable e) {
+						writeFailure(out, e);
+						continue;
+					}
+					
+					out.writeObject(results);
+					// Nothing is shared between chunks, this stops the stream holding onto every result
+					out.reset();
+					out.flush();
+				}
+			} finally {
+				Stage.closeInstance(function);
+			}
+		} catch (Exception e) {
+			// The pool has gone, there is no one to report to
+		}
+	}
+	
+	/**
+	 * Sends a failure. Failures that cannot be serialized are replaced by one that describes them
+	 */
+	private static void writeFailure(ObjectOutputStream out, Throwable failure) throws IOException {
+		Throwable sent = failure;
+		try {
+			new ObjectOutputStream(new ByteArrayOutputStream()).writeObject(failure);
+		} catch (IOException e) {
+			sent = new IllegalStateException(failure.toString());
+			sent.setStackTrace(failure.getStackTrace());
+		}
+		
+		out.writeObject(sent);
+		out.reset();
+		out.flush();
+	}
+}
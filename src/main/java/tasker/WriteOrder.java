@@ -0,0 +1,19 @@
+package tasker;
+
+/**
+ * Controls the order that items are written to a sink.
+ * @author schmoller
+ */
+public enum WriteOrder {
+	/**
+	 * Items are written in whatever order they are completed.
+	 * Each thread writes independently of the others.
+	 */
+	Unordered,
+	/**
+	 * Items are written in the order they are supplied to the sink.
+	 * Threads take turns to reserve space in the file but still
+	 * encode and write in parallel.
+	 */
+	Ordered
+}
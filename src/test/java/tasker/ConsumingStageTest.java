@@ -1,9 +1,11 @@
 package tasker;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
@@ -12,6 +14,8 @@ import java.util.function.Supplier;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 
@@ -37,7 +41,7 @@ public class ConsumingStageTest {
 		List<String> testInputs = Arrays.asList("a", "b", "c", "d");
 		
 		// This should request only one consumer instance
-		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2);
+		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2).get();
 		
 		// Only one requested
 		verify(consumerSupplier).get();
@@ -63,7 +67,7 @@ public class ConsumingStageTest {
 		List<String> testInputs = Arrays.asList("a", "b", "c", "d");
 		
 		// This should request only one per thread (2)
-		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2);
+		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2).get();
 		
 		// Only 2 requested
 		verify(consumerSupplier, times(2)).get();
@@ -89,7 +93,7 @@ public class ConsumingStageTest {
 		List<String> testInputs = Arrays.asList("a", "b", "c", "d");
 		
 		// This should request one per item (4)
-		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2);
+		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2).get();
 		
 		// Only 4 requested
 		verify(consumerSupplier, times(4)).get();
@@ -101,5 +105,71 @@ public class ConsumingStageTest {
 		verify(testConsumer).accept("d");
 		verifyNoMoreInteractions(testConsumer);
 	}
-
+	
+	@Test
+	public void testPerThreadConsumerCreatedAndClosedByWorker() throws Exception {
+		Consumer<String> testConsumer = mock(Consumer.class, withSettings().extraInterfaces(AutoCloseable.class));
+		Task<?> task = mock(Task.class);
+		
+		Set<Thread> creatingThreads = Sets.newConcurrentHashSet();
+		Supplier<Consumer<String>> consumerSupplier = mock(Supplier.class);
+		when(consumerSupplier.get()).then(invocation -> {
+			creatingThreads.add(Thread.currentThread());
+			return testConsumer;
+		});
+		
+		ConsumingStage<String> stage = new ConsumingStage<String>(task, consumerSupplier, InstanceOptions.PerThread);
+		
+		List<String> testInputs = Arrays.asList("a", "b", "c", "d");
+		
+		// Creating the executors should not create any instances
+		ListenableFuture<Void> future = stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2);
+		future.get();
+		
+		// Each worker creates its own
+		verify(consumerSupplier, times(2)).get();
+		assertFalse(creatingThreads.contains(Thread.currentThread()));
+		
+		// And closes it once finished
+		verify((AutoCloseable)testConsumer, times(2)).close();
+	}
+	
+	@Test
+	public void testSingleConsumerClosedOnce() throws Exception {
+		Consumer<String> testConsumer = mock(Consumer.class, withSettings().extraInterfaces(AutoCloseable.class));
+		Task<?> task = mock(Task.class);
+		
+		Supplier<Consumer<String>> consumerSupplier = mock(Supplier.class);
+		when(consumerSupplier.get()).thenReturn(testConsumer);
+		
+		ConsumingStage<String> stage = new ConsumingStage<String>(task, consumerSupplier, InstanceOptions.Single);
+		
+		List<String> testInputs = Arrays.asList("a", "b", "c", "d");
+		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2).get();
+		
+		verify((AutoCloseable)testConsumer).close();
+	}
+	
+	@Test
+	public void testPerThreadConsumerClosedOnFailure() throws Exception {
+		Consumer<String> testConsumer = mock(Consumer.class, withSettings().extraInterfaces(AutoCloseable.class));
+		doThrow(new IllegalStateException()).when(testConsumer).accept("c");
+		Task<?> task = mock(Task.class);
+		
+		Supplier<Consumer<String>> consumerSupplier = mock(Supplier.class);
+		when(consumerSupplier.get()).thenReturn(testConsumer);
+		
+		ConsumingStage<String> stage = new ConsumingStage<String>(task, consumerSupplier, InstanceOptions.PerThread);
+		
+		List<String> testInputs = Arrays.asList("a", "b", "c", "d");
+		try {
+			stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2).get();
+			fail("Expected the stage to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		
+		// Every created instance is closed
+		verify((AutoCloseable)testConsumer, times(mockingDetails(consumerSupplier).getInvocations().size())).close();
+	}
 }
@@ -0,0 +1,110 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class FileSinkStageTest {
+	private static final RecordEncoder<Integer> LINE_ENCODER = (value, buffer) -> buffer.put((value + "\n").getBytes(StandardCharsets.UTF_8));
+	
+	private Path file;
+	private List<Integer> testInputs;
+	
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("tasker", ".txt");
+		testInputs = ContiguousSet.create(Range.closedOpen(0, 200000), DiscreteDomain.integers()).asList();
+	}
+	
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+	
+	private List<Integer> readFile() throws IOException {
+		List<Integer> values = Lists.newArrayList();
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			values.add(Integer.valueOf(line));
+		}
+		
+		return values;
+	}
+	
+	@Test
+	public void testUnorderedSink() throws IOException, ExecutionException, InterruptedException {
+		new Tasker()
+			.usingThreads(4)
+			.consume(testInputs)
+			.intoFileSink(file, LINE_ENCODER)
+			.executeAndWait();
+		
+		List<Integer> values = readFile();
+		Collections.sort(values);
+		assertEquals(testInputs, values);
+	}
+	
+	@Test
+	public void testOrderedSink() throws IOException, ExecutionException, InterruptedException {
+		new Tasker()
+			.usingThreads(4)
+			.consume(testInputs)
+			.intoFileSink(file, LINE_ENCODER, WriteOrder.Ordered)
+			.executeAndWait();
+		
+		assertEquals(testInputs, readFile());
+	}
+	
+	@Test
+	public void testOrderedSinkOnFeed() throws IOException, ExecutionException, InterruptedException, TimeoutException {
+		TaskFeed<Integer> feed = new Tasker()
+			.usingThreads(2)
+			.feed();
+		
+		ListenableFuture<Void> future = feed
+			.intoFileSink(file, LINE_ENCODER, WriteOrder.Ordered)
+			.execute();
+		
+		for (int i = 0; i < 10; ++i) {
+			feed.offer(i);
+		}
+		
+		// Far fewer items than a batch, but they are written while the feed is still open
+		List<String> expected = Lists.newArrayList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9");
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!expected.equals(Files.readAllLines(file, StandardCharsets.UTF_8)) && System.nanoTime() - deadline < 0) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, Files.readAllLines(file, StandardCharsets.UTF_8));
+		
+		feed.close();
+		future.get(10, TimeUnit.SECONDS);
+	}
+	
+	@Test(expected = ExecutionException.class)
+	public void testRecordTooLarge() throws ExecutionException, InterruptedException {
+		new Tasker()
+			.usingThreads(2)
+			.consume(testInputs)
+			.intoFileSink(file, (value, buffer) -> buffer.put(ByteBuffer.allocate(FileSinkStage.BUFFER_SIZE + 1)))
+			.executeAndWait();
+	}
+}
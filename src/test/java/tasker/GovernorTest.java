@@ -0,0 +1,82 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class GovernorTest {
+	@Test
+	public void testRateLimit() throws InterruptedException {
+		Governor governor = new Governor().withRateLimit(100, 1);
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < 11; ++i) {
+			governor.release(governor.acquire(1), false);
+		}
+		long elapsed = System.nanoTime() - start;
+		
+		// The first permit is saved up, the other 10 are 10ms apart
+		assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(90));
+	}
+	
+	@Test
+	public void testLimitGrowsWhileHealthy() throws InterruptedException {
+		Governor governor = new Governor().withAdaptiveLimit(2, 4, 1, TimeUnit.SECONDS);
+		
+		for (int i = 0; i < 100; ++i) {
+			governor.release(governor.acquire(1), false);
+		}
+		
+		assertEquals(4, governor.getConcurrencyLimit());
+	}
+	
+	@Test
+	public void testLimitBacksOffOnFailure() throws InterruptedException {
+		Governor governor = new Governor().withAdaptiveLimit(8, 8, 1, TimeUnit.SECONDS);
+		
+		governor.release(governor.acquire(1), true);
+		assertEquals(4, governor.getConcurrencyLimit());
+		
+		// Items that started before the backoff do not back off again
+		long first = governor.acquire(1);
+		long second = governor.acquire(1);
+		governor.release(second, true);
+		governor.release(first, true);
+		assertEquals(2, governor.getConcurrencyLimit());
+	}
+	
+	@Test
+	public void testStageStaysWithinLimit() throws ExecutionException, InterruptedException {
+		List<Integer> inputs = Lists.newArrayList();
+		for (int i = 0; i < 200; ++i) {
+			inputs.add(i);
+		}
+		
+		AtomicInteger inProgress = new AtomicInteger();
+		AtomicInteger mostInProgress = new AtomicInteger();
+		AtomicInteger consumed = new AtomicInteger();
+		
+		new Tasker()
+			.usingThreads(8)
+			.consume(inputs)
+			.intoConsumer(value -> {
+				int current = inProgress.incrementAndGet();
+				mostInProgress.accumulateAndGet(current, Math::max);
+				Thread.yield();
+				inProgress.decrementAndGet();
+				consumed.incrementAndGet();
+			})
+			.withGovernor(new Governor().withAdaptiveLimit(2, 3, 1, TimeUnit.SECONDS))
+			.executeAndWait();
+		
+		assertEquals(200, consumed.get());
+		assertTrue(mostInProgress.get() <= 3);
+	}
+}
@@ -0,0 +1,52 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+
+public class GroupingAggregatorTest {
+	@Test
+	public void testGroupingToLists() throws ExecutionException, InterruptedException {
+		List<Integer> testInputs = ContiguousSet.create(Range.closedOpen(0, 1000), DiscreteDomain.integers()).asList();
+		
+		Map<Integer, List<Integer>> groups = new Tasker()
+			.usingThreads(4)
+			.consume(testInputs)
+			.intoFunction(value -> value)
+			.aggregateAndWait(Aggregator.groupingBy(value -> value % 10));
+		
+		assertEquals(10, groups.size());
+		for (int key = 0; key < 10; ++key) {
+			List<Integer> group = groups.get(key);
+			assertEquals(100, group.size());
+			for (int value : group) {
+				assertEquals(key, value % 10);
+			}
+		}
+	}
+	
+	@Test
+	public void testGroupingWithDownstream() throws ExecutionException, InterruptedException {
+		List<Integer> testInputs = ContiguousSet.create(Range.closedOpen(0, 1000), DiscreteDomain.integers()).asList();
+		
+		Map<String, Long> counts = new Tasker()
+			.usingThreads(4)
+			.consume(testInputs)
+			.intoFunction(value -> value)
+			.aggregateAndWait(Aggregator.groupingBy(value -> (value % 2 == 0 ? "even" : "odd"), Collectors.counting()));
+		
+		assertEquals(2, counts.size());
+		assertEquals(Long.valueOf(500), counts.get("even"));
+		assertEquals(Long.valueOf(500), counts.get("odd"));
+		assertNull(counts.get("other"));
+	}
+}
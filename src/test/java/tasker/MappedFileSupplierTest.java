@@ -0,0 +1,126 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+
+public class MappedFileSupplierTest {
+	private Path file;
+	
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("tasker", ".txt");
+	}
+	
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+	
+	private List<String> writeLines(int count, String separator) throws IOException {
+		List<String> lines = Lists.newArrayList();
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < count; ++i) {
+			// Vary the length so records cross the segment boundaries
+			String line = "line-" + i + "-" + (i % 7 == 0 ? "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx" : "");
+			lines.add(line);
+			builder.append(line).append(separator);
+		}
+		
+		Files.write(file, builder.toString().getBytes(StandardCharsets.UTF_8));
+		return lines;
+	}
+	
+	@Test
+	public void testLinesSplitOnBoundaries() throws IOException {
+		List<String> lines = writeLines(500, "\r\n");
+		
+		MappedFileSupplier<CharSequence> supplier = new MappedFileSupplier<>(file, RecordDelimiter.newLine(), () -> MappedFileSupplier.lineDecoder(StandardCharsets.UTF_8), 16);
+		
+		Multiset<String> read = HashMultiset.create();
+		CharSequence line;
+		while ((line = supplier.get()) != null) {
+			read.add(line.toString());
+		}
+		
+		assertEquals(HashMultiset.create(lines), read);
+	}
+	
+	@Test
+	public void testMultiByteDelimiter() throws IOException {
+		List<String> lines = writeLines(200, "||");
+		
+		MappedFileSupplier<ByteBuffer> supplier = new MappedFileSupplier<>(file, RecordDelimiter.of((byte)'|', (byte)'|'), () -> record -> record, 9);
+		
+		Multiset<String> read = HashMultiset.create();
+		ByteBuffer record;
+		while ((record = supplier.get()) != null) {
+			read.add(StandardCharsets.UTF_8.decode(record).toString());
+		}
+		
+		assertEquals(HashMultiset.create(lines), read);
+	}
+	
+	@Test
+	public void testEmptyFile() throws IOException {
+		MappedFileSupplier<ByteBuffer> supplier = new MappedFileSupplier<>(file, RecordDelimiter.newLine(), () -> record -> record, 16);
+		
+		assertNull(supplier.get());
+	}
+	
+	@Test
+	public void testConsumeLines() throws IOException, ExecutionException, InterruptedException {
+		List<String> lines = writeLines(10000, "\n");
+		
+		Set<String> read = new Tasker()
+			.usingThreads(4)
+			.consumeLines(file)
+			.intoFunction(CharSequence::toString)
+			.executeAndWait(Collector.setCollector());
+		
+		assertEquals(Sets.newHashSet(lines), read);
+	}
+	
+	@Test
+	public void testConsumeOnScheduler() throws IOException, ExecutionException, InterruptedException {
+		List<String> lines = writeLines(20000, "\n");
+		
+		// Executors give up their thread part way through a segment and resume on another
+		TaskScheduler scheduler = new TaskScheduler(4, 16, Executors.defaultThreadFactory());
+		try {
+			// Which thread an executor resumes on varies, so try it a few times
+			for (int i = 0; i < 10; ++i) {
+				MappedFileSupplier<CharSequence> supplier = new MappedFileSupplier<>(file, RecordDelimiter.newLine(), () -> MappedFileSupplier.lineDecoder(StandardCharsets.UTF_8), 4096);
+				
+				Set<String> read = new Tasker()
+					.usingThreads(8)
+					.withScheduler(scheduler)
+					.consume(supplier)
+					.intoFunction(CharSequence::toString)
+					.executeAndWait(Collector.setCollector());
+				
+				assertEquals(lines.size(), read.size());
+				assertEquals(Sets.newHashSet(lines), read);
+			}
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+}
@@ -1,17 +1,26 @@
 package tasker;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 
@@ -39,7 +48,7 @@ public class OutputtingStageTest {
 		List<Integer> testInputs = Arrays.asList(1, 2, 3, 4);
 		
 		// This should request only one function instance
-		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2);
+		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2).get();
 		
 		// Only one requested
 		verify(functionSupplier).get();
@@ -67,7 +76,7 @@ public class OutputtingStageTest {
 		List<Integer> testInputs = Arrays.asList(1, 2, 3, 4);
 		
 		// This should request 2 function instances
-		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2);
+		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2).get();
 		
 		// Only one requested
 		verify(functionSupplier, times(2)).get();
@@ -95,7 +104,7 @@ public class OutputtingStageTest {
 		List<Integer> testInputs = Arrays.asList(1, 2, 3, 4);
 		
 		// This should request 4 function instances
-		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2);
+		stage.executeStage(new IterableSupplier<>(testInputs), executorService, 2).get();
 		
 		// Only 4 requested
 		verify(functionSupplier, times(4)).get();
@@ -107,4 +116,41 @@ public class OutputtingStageTest {
 		verify(testFunction).apply(4);
 		verifyNoMoreInteractions(testFunction);
 	}
-}
\ No newline at end of file
+	
+	@Test
+	public void testSpeculativeStraggler() throws ExecutionException, InterruptedException, TimeoutException {
+		AtomicInteger stragglerRuns = new AtomicInteger();
+		AtomicBoolean interrupted = new AtomicBoolean();
+		
+		List<Integer> inputs = Lists.newArrayList();
+		Set<Integer> expected = Sets.newHashSet();
+		for (int i = 0; i < 100; ++i) {
+			inputs.add(i);
+			expected.add(i * 2);
+		}
+		
+		Collection<Integer> results = new Tasker()
+			.usingThreads(2)
+			.consume(inputs)
+			.intoFunction((Integer value) -> {
+				// Only the first run of the straggler is slow
+				if (value == 50 && stragglerRuns.incrementAndGet() == 1) {
+					try {
+						Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+					} catch (InterruptedException e) {
+						interrupted.set(true);
+					}
+				}
+				return value * 2;
+			})
+			.speculative()
+			.execute()
+			.get(10, TimeUnit.SECONDS);
+		
+		// The copy is kept, the original is interrupted and its result dropped
+		assertEquals(100, results.size());
+		assertEquals(expected, Sets.newHashSet(results));
+		assertEquals(2, stragglerRuns.get());
+		assertTrue(interrupted.get());
+	}
+}
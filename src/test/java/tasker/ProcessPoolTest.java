@@ -0,0 +1,184 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class ProcessPoolTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private ProcessPool pool;
+	private List<Integer> testInputs;
+	
+	@Before
+	public void startPool() throws IOException {
+		pool = new ProcessPool(2);
+		
+		testInputs = Lists.newArrayList();
+		for (int i = 0; i < 1000; ++i) {
+			testInputs.add(i);
+		}
+	}
+	
+	@After
+	public void shutdownPool() {
+		pool.shutdown();
+	}
+	
+	@Test
+	public void testRemoteFunction() throws ExecutionException, InterruptedException {
+		Collection<Integer> results = new Tasker()
+			.usingThreads(2)
+			.consume(testInputs)
+			.intoRemoteFunction(pool, Doubler::new)
+			.intoFunction(value -> value + 1)
+			.executeAndWait();
+		
+		assertEquals(testInputs.size(), results.size());
+		for (int value : testInputs) {
+			assertTrue(results.contains(value * 2 + 1));
+		}
+	}
+	
+	@Test
+	public void testFailurePassesCause() throws InterruptedException {
+		try {
+			new Tasker()
+				.usingThreads(2)
+				.consume(testInputs)
+				.intoRemoteFunction(pool, Failing::new)
+				.executeAndWait();
+			fail("Expected the task to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+	
+	@Test
+	public void testWorkerFailureRetriesChunk() throws ExecutionException, InterruptedException, IOException {
+		String marker = new File(folder.getRoot(), "halted").getPath();
+		
+		Collection<Integer> results = new Tasker()
+			.usingThreads(2)
+			.consume(testInputs)
+			.intoRemoteFunction(pool, () -> new HaltOnce(marker))
+			.executeAndWait();
+		
+		assertTrue(new File(marker).exists());
+		assertEquals(Sets.newHashSet(testInputs), Sets.newHashSet(results));
+	}
+	
+	@Test
+	public void testWrongTokenRefused() throws InterruptedException {
+		ProcessPool intruder = ProcessPool.connect(pool.getAddresses(), "not-the-token");
+		
+		try {
+			new Tasker()
+				.usingThreads(1)
+				.consume(testInputs)
+				.intoRemoteFunction(intruder, Doubler::new)
+				.executeAndWait();
+			fail("Expected the workers to refuse the connection");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof UncheckedIOException);
+		}
+	}
+	
+	@Test
+	public void testHungWorkerRetriesChunk() throws ExecutionException, InterruptedException {
+		String marker = new File(folder.getRoot(), "hung").getPath();
+		pool.withReadTimeout(500, TimeUnit.MILLISECONDS);
+		
+		Collection<Integer> results = new Tasker()
+			.usingThreads(2)
+			.consume(testInputs)
+			.intoRemoteFunction(pool, () -> new HangOnce(marker))
+			.executeAndWait();
+		
+		assertTrue(new File(marker).exists());
+		assertEquals(Sets.newHashSet(testInputs), Sets.newHashSet(results));
+	}
+	
+	private static class Doubler implements Function<Integer, Integer> {
+		@Override
+		public Integer apply(Integer value) {
+			return value * 2;
+		}
+	}
+	
+	private static class Failing implements Function<Integer, Integer> {
+		@Override
+		public Integer apply(Integer value) {
+			throw new IllegalArgumentException("bad " + value);
+		}
+	}
+	
+	/**
+	 * Stops answering the first time it sees item 500
+	 */
+	private static class HangOnce implements Function<Integer, Integer> {
+		private final String marker;
+		
+		public HangOnce(String marker) {
+			this.marker = marker;
+		}
+		
+		@Override
+		public Integer apply(Integer value) {
+			if (value == 500) {
+				try {
+					if (new File(marker).createNewFile()) {
+						Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+					}
+				} catch (IOException | InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			
+			return value;
+		}
+	}
+	
+	/**
+	 * Kills the worker process the first time it sees item 500
+	 */
+	private static class HaltOnce implements Function<Integer, Integer> {
+		private final String marker;
+		
+		public HaltOnce(String marker) {
+			this.marker = marker;
+		}
+		
+		@Override
+		public Integer apply(Integer value) {
+			if (value == 500) {
+				try {
+					if (new File(marker).createNewFile()) {
+						Runtime.getRuntime().halt(1);
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			
+			return value;
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class PublisherTest {
+	@Test
+	public void testConsumeRequestsOnlyBuffer() throws ExecutionException, InterruptedException {
+		RangePublisher publisher = new RangePublisher(1000);
+		
+		Collection<Integer> results = new Tasker()
+			.usingThreads(2)
+			.consume(publisher, 10)
+			.intoFunction(value -> value)
+			.executeAndWait();
+		
+		assertEquals(1000, results.size());
+		assertEquals(Sets.newHashSet(publisher.items()), Sets.newHashSet(results));
+		assertTrue("Requested more than the buffer", publisher.maxOutstanding.get() <= 10);
+	}
+	
+	@Test
+	public void testConsumeCancelsOnFailure() throws InterruptedException {
+		RangePublisher publisher = new RangePublisher(1000);
+		
+		try {
+			new Tasker()
+				.usingThreads(2)
+				.consume(publisher, 10)
+				.intoConsumer(value -> {
+					throw new IllegalArgumentException();
+				})
+				.executeAndWait();
+			fail("Expected the task to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		
+		assertTrue(publisher.cancelled.get());
+	}
+	
+	@Test
+	public void testConsumeFailsOnOverflow() throws InterruptedException {
+		AtomicBoolean cancelled = new AtomicBoolean();
+		
+		// Ignores demand and sends everything at once
+		Publisher<Integer> publisher = subscriber -> {
+			subscriber.onSubscribe(new Subscription() {
+				@Override
+				public void request(long n) {
+				}
+				
+				@Override
+				public void cancel() {
+					cancelled.set(true);
+				}
+			});
+			
+			for (int i = 0; i < 100; ++i) {
+				subscriber.onNext(i);
+			}
+		};
+		
+		try {
+			new Tasker()
+				.usingThreads(2)
+				.consume(publisher, 10)
+				.intoFunction(value -> value)
+				.executeAndWait();
+			fail("Expected the task to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		
+		assertTrue(cancelled.get());
+	}
+	
+	@Test
+	public void testConsumeFromLockingPublisher() throws ExecutionException, InterruptedException, TimeoutException {
+		LockingPublisher publisher = new LockingPublisher(1000);
+		
+		Collection<Integer> results = new Tasker()
+			.usingThreads(2)
+			.consume(publisher, 10)
+			.intoFunction(value -> value)
+			.execute()
+			.get(10, TimeUnit.SECONDS);
+		
+		assertEquals(1000, results.size());
+	}
+	
+	@Test
+	public void testToPublisherHonorsDemand() throws InterruptedException {
+		AtomicInteger produced = new AtomicInteger();
+		List<Integer> received = Lists.newArrayList();
+		AtomicReference<Subscription> subscription = new AtomicReference<>();
+		CountDownLatch completed = new CountDownLatch(1);
+		
+		Publisher<Integer> publisher = new Tasker()
+			.usingThreads(2)
+			.consume(new RangePublisher(100).items())
+			.intoFunction(value -> {
+				produced.incrementAndGet();
+				return value;
+			})
+			.toPublisher(4);
+		
+		publisher.subscribe(new Subscriber<Integer>() {
+			@Override
+			public void onSubscribe(Subscription s) {
+				subscription.set(s);
+			}
+			
+			@Override
+			public void onNext(Integer item) {
+				synchronized (received) {
+					received.add(item);
+				}
+			}
+			
+			@Override
+			public void onError(Throwable t) {
+			}
+			
+			@Override
+			public void onComplete() {
+				completed.countDown();
+			}
+		});
+		
+		// Nothing is requested, so only the buffer and one result per thread can be produced
+		Thread.sleep(200);
+		assertTrue("Produced without demand", produced.get() <= 4 + 2);
+		synchronized (received) {
+			assertTrue(received.isEmpty());
+		}
+		
+		subscription.get().request(Long.MAX_VALUE);
+		assertTrue(completed.await(10, TimeUnit.SECONDS));
+		
+		synchronized (received) {
+			assertEquals(100, received.size());
+		}
+	}
+	
+	@Test
+	public void testToPublisherCancel() throws InterruptedException {
+		CountDownLatch cancelled = new CountDownLatch(1);
+		AtomicBoolean signalled = new AtomicBoolean();
+		
+		Publisher<Integer> publisher = new Tasker()
+			.usingThreads(2)
+			.consume(new RangePublisher(100).items())
+			.intoFunction(value -> {
+				try {
+					return value;
+				} finally {
+					if (value == 99) {
+						cancelled.countDown();
+					}
+				}
+			})
+			.toPublisher(1);
+		
+		publisher.subscribe(new Subscriber<Integer>() {
+			private Subscription subscription;
+			
+			@Override
+			public void onSubscribe(Subscription s) {
+				subscription = s;
+				s.request(1);
+			}
+			
+			@Override
+			public void onNext(Integer item) {
+				subscription.cancel();
+			}
+			
+			@Override
+			public void onError(Throwable t) {
+				signalled.set(true);
+			}
+			
+			@Override
+			public void onComplete() {
+				signalled.set(true);
+			}
+		});
+		
+		// The task stops once cancelled so the last item is never reached
+		assertFalse(cancelled.await(500, TimeUnit.MILLISECONDS));
+		assertFalse(signalled.get());
+	}
+	
+	/**
+	 * Publishes a range of integers synchronously as they are requested
+	 */
+	private static class RangePublisher implements Publisher<Integer> {
+		private final int count;
+		private final AtomicInteger maxOutstanding;
+		private final AtomicBoolean cancelled;
+		
+		public RangePublisher(int count) {
+			this.count = count;
+			maxOutstanding = new AtomicInteger();
+			cancelled = new AtomicBoolean();
+		}
+		
+		public List<Integer> items() {
+			List<Integer> items = Lists.newArrayList();
+			for (int i = 0; i < count; ++i) {
+				items.add(i);
+			}
+			return items;
+		}
+		
+		@Override
+		public void subscribe(Subscriber<? super Integer> subscriber) {
+			subscriber.onSubscribe(new Subscription() {
+				private long outstanding;
+				private int next;
+				private boolean emitting;
+				
+				@Override
+				public synchronized void request(long n) {
+					outstanding += n;
+					maxOutstanding.accumulateAndGet((int)outstanding, Math::max);
+					
+					if (emitting) {
+						return;
+					}
+					
+					emitting = true;
+					while (outstanding > 0 && next < count && !cancelled.get()) {
+						--outstanding;
+						subscriber.onNext(next++);
+					}
+					emitting = false;
+					
+					if (next == count && !cancelled.get()) {
+						next = count + 1;
+						subscriber.onComplete();
+					}
+				}
+				
+				@Override
+				public void cancel() {
+					cancelled.set(true);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Publishes a range of integers from its own thread, holding the same lock
+	 * while it emits that requests take
+	 */
+	private static class LockingPublisher implements Publisher<Integer> {
+		private final int count;
+		
+		public LockingPublisher(int count) {
+			this.count = count;
+		}
+		
+		@Override
+		public void subscribe(Subscriber<? super Integer> subscriber) {
+			Object lock = new Object();
+			long[] demand = new long[1];
+			AtomicBoolean cancelled = new AtomicBoolean();
+			
+			subscriber.onSubscribe(new Subscription() {
+				@Override
+				public void request(long n) {
+					synchronized (lock) {
+						demand[0] += n;
+						lock.notifyAll();
+					}
+				}
+				
+				@Override
+				public void cancel() {
+					cancelled.set(true);
+				}
+			});
+			
+			Thread emitter = new Thread(() -> {
+				try {
+					for (int i = 0; i < count && !cancelled.get(); ++i) {
+						synchronized (lock) {
+							while (demand[0] == 0) {
+								lock.wait();
+							}
+							--demand[0];
+							subscriber.onNext(i);
+						}
+					}
+					subscriber.onComplete();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			emitter.setDaemon(true);
+			emitter.start();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class RingStageTest {
+	private static List<Integer> createInputs(int count) {
+		List<Integer> inputs = Lists.newArrayList();
+		for (int i = 0; i < count; ++i) {
+			inputs.add(i);
+		}
+		return inputs;
+	}
+	
+	private static long expectedSum(int count) {
+		// Sum of 2i for i in [0, count)
+		return (long)count * (count - 1);
+	}
+	
+	private static class Event {
+		private int value;
+		private int doubled;
+	}
+	
+	@Test
+	public void testHandlersRunInOrder() throws ExecutionException, InterruptedException {
+		AtomicLong sum = new AtomicLong();
+		AtomicInteger outOfOrder = new AtomicInteger();
+		
+		new Tasker()
+			.usingThreads(2)
+			.consume(createInputs(10000))
+			.intoRing(64, Event::new, (value, event) -> event.value = value)
+			.handleWith(event -> event.doubled = event.value * 2)
+			.handleWith(event -> {
+				if (event.doubled != event.value * 2) {
+					outOfOrder.incrementAndGet();
+				}
+				sum.addAndGet(event.doubled);
+			})
+			.executeAndWait();
+		
+		assertEquals(0, outOfOrder.get());
+		assertEquals(expectedSum(10000), sum.get());
+	}
+	
+	@Test
+	public void testPoolTooSmall() throws InterruptedException, TimeoutException {
+		ExecutorService service = Executors.newFixedThreadPool(2);
+		try {
+			// One handler on two threads needs three at once
+			new Tasker()
+				.usingThreads(2)
+				.withService(service)
+				.consume(createInputs(100))
+				.intoRing(16, Event::new, (value, event) -> event.value = value)
+				.handleWith(event -> {})
+				.execute()
+				.get(10, TimeUnit.SECONDS);
+			fail("Expected the ring to be refused");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		} finally {
+			service.shutdown();
+		}
+	}
+	
+	@Test
+	public void testAfterFunction() throws ExecutionException, InterruptedException {
+		AtomicLong sum = new AtomicLong();
+		
+		new Tasker()
+			.usingThreads(3)
+			.consume(createInputs(5000))
+			.intoFunction(value -> value * 2)
+			.intoRing(16, Event::new, (value, event) -> event.doubled = value)
+			.withWaitStrategy(WaitStrategy.Yielding)
+			.handleWith(() -> event -> sum.addAndGet(event.doubled))
+			.executeAndWait();
+		
+		assertEquals(expectedSum(5000), sum.get());
+	}
+	
+	@Test
+	public void testOnScheduler() throws ExecutionException, InterruptedException, TimeoutException {
+		TaskScheduler scheduler = new TaskScheduler(2);
+		try {
+			AtomicLong sum = new AtomicLong();
+			
+			// Five executors share two threads, so waiting executors must give up their thread
+			new Tasker()
+				.usingThreads(2)
+				.withScheduler(scheduler)
+				.consume(createInputs(10000))
+				.intoRing(32, Event::new, (value, event) -> event.value = value)
+				.handleWith(event -> event.doubled = event.value * 2)
+				.handleWith(event -> sum.addAndGet(event.doubled))
+				.execute()
+				.get(10, TimeUnit.SECONDS);
+			
+			assertEquals(expectedSum(10000), sum.get());
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+	
+	@Test
+	public void testHandlerFailure() throws InterruptedException, TimeoutException {
+		try {
+			new Tasker()
+				.usingThreads(2)
+				.consume(createInputs(10000))
+				.intoRing(8, Event::new, (value, event) -> event.value = value)
+				.handleWith(event -> {
+					if (event.value == 500) {
+						throw new IllegalStateException();
+					}
+				})
+				.handleWith(event -> {})
+				.execute()
+				.get(10, TimeUnit.SECONDS);
+			fail("Expected the task to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testSizeMustBePowerOfTwo() {
+		new Tasker()
+			.consume(createInputs(1))
+			.intoRing(10, Event::new, (value, event) -> event.value = value);
+	}
+}
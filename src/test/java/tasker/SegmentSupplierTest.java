@@ -0,0 +1,57 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class SegmentSupplierTest {
+	@Test
+	public void testReadsEveryBuffer() {
+		SegmentedBuffer<Integer> first = new SegmentedBuffer<>();
+		SegmentedBuffer<Integer> empty = new SegmentedBuffer<>();
+		SegmentedBuffer<Integer> last = new SegmentedBuffer<>();
+		
+		// Spans more than one segment
+		int count = SegmentedBuffer.SEGMENT_SIZE * 2 + 1;
+		for (int i = 0; i < count; ++i) {
+			first.accept(i);
+		}
+		last.accept(-1);
+		
+		SegmentSupplier<Integer> supplier = new SegmentSupplier<>(Arrays.asList(first.release(), empty.release(), last.release()), false);
+		
+		List<Integer> results = Lists.newArrayList();
+		Integer item;
+		while ((item = supplier.get()) != null) {
+			results.add(item);
+		}
+		
+		assertEquals(count + 1, results.size());
+		assertEquals(Integer.valueOf(0), results.get(0));
+		assertEquals(Integer.valueOf(count - 1), results.get(count - 1));
+		assertEquals(Integer.valueOf(-1), results.get(count));
+		assertNull(supplier.get());
+	}
+	
+	@Test
+	public void testClearsItemsAsRead() {
+		SegmentedBuffer<String> buffer = new SegmentedBuffer<>();
+		buffer.accept("a");
+		buffer.accept("b");
+		
+		SegmentedBuffer.Segment segment = buffer.release();
+		SegmentSupplier<String> supplier = new SegmentSupplier<>(Arrays.asList(segment), true);
+		
+		assertEquals("a", supplier.get());
+		assertNull(segment.items[0]);
+		assertEquals("b", segment.items[1]);
+		
+		// The buffer no longer holds its segments once released
+		assertNull(buffer.release());
+	}
+}
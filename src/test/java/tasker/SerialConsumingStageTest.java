@@ -0,0 +1,121 @@
+package tasker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class SerialConsumingStageTest {
+	private ListeningExecutorService executorService;
+	
+	@Before
+	public void setupExecutors() {
+		// Prepare an executor service with 4 threads
+		executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+	}
+	
+	@Test
+	public void testConsumerNeverShared() throws ExecutionException, InterruptedException {
+		Task<?> task = mock(Task.class);
+		
+		List<Integer> inputs = new ArrayList<>();
+		for (int i = 0; i < 10000; ++i) {
+			inputs.add(i);
+		}
+		
+		// Not threadsafe, so items would go missing if two threads used it at once
+		List<Integer> consumed = new ArrayList<>();
+		AtomicBoolean inUse = new AtomicBoolean();
+		AtomicBoolean overlapped = new AtomicBoolean();
+		Consumer<Integer> consumer = value -> {
+			if (!inUse.compareAndSet(false, true)) {
+				overlapped.set(true);
+			}
+			consumed.add(value);
+			inUse.set(false);
+		};
+		
+		SerialConsumingStage<Integer> stage = new SerialConsumingStage<>(task, consumer);
+		stage.executeStage(new IterableSupplier<>(inputs), executorService, 4).get();
+		
+		assertFalse(overlapped.get());
+		assertEquals(inputs.size(), consumed.size());
+		assertEquals(Sets.newHashSet(inputs), Sets.newHashSet(consumed));
+	}
+	
+	@Test
+	public void testPartialBatches() throws ExecutionException, InterruptedException {
+		List<Integer> consumed = new ArrayList<>();
+		
+		// Fewer items than a batch on each thread
+		new Tasker()
+			.usingThreads(4)
+			.consume(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9))
+			.intoFunction(value -> value * 2)
+			.intoSerialConsumer(consumed::add)
+			.executeAndWait();
+		
+		assertEquals(10, consumed.size());
+		assertEquals(Sets.newHashSet(0, 2, 4, 6, 8, 10, 12, 14, 16, 18), Sets.newHashSet(consumed));
+	}
+	
+	@Test
+	public void testSlowConsumerOnScheduler() throws ExecutionException, InterruptedException {
+		List<Integer> inputs = new ArrayList<>();
+		for (int i = 0; i < 5000; ++i) {
+			inputs.add(i);
+		}
+		
+		// Executors give up their thread while waiting on the slow consumer, often with a full batch
+		TaskScheduler scheduler = new TaskScheduler(4);
+		try {
+			List<Integer> consumed = new ArrayList<>();
+			new Tasker()
+				.usingThreads(4)
+				.withScheduler(scheduler)
+				.consume(inputs)
+				.intoSerialConsumer(value -> {
+					LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+					consumed.add(value);
+				})
+				.executeAndWait();
+			
+			assertEquals(5000, consumed.size());
+			assertEquals(Sets.newHashSet(inputs), Sets.newHashSet(consumed));
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+	
+	@Test(expected = ExecutionException.class)
+	public void testConsumerFailure() throws ExecutionException, InterruptedException {
+		Task<?> task = mock(Task.class);
+		
+		List<Integer> inputs = new ArrayList<>();
+		for (int i = 0; i < 1000; ++i) {
+			inputs.add(i);
+		}
+		
+		SerialConsumingStage<Integer> stage = new SerialConsumingStage<>(task, value -> {
+			if (value == 500) {
+				throw new IllegalArgumentException();
+			}
+		});
+		stage.executeStage(new IterableSupplier<>(inputs), executorService, 4).get();
+	}
+}
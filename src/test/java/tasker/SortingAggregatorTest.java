@@ -0,0 +1,53 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class SortingAggregatorTest {
+	private List<Integer> testInputs;
+	
+	@Before
+	public void createInputs() {
+		Random random = new Random(42);
+		testInputs = Lists.newArrayList();
+		for (int i = 0; i < 10000; ++i) {
+			testInputs.add(random.nextInt(1000));
+		}
+	}
+	
+	@Test
+	public void testSorted() throws ExecutionException, InterruptedException {
+		List<Integer> sorted = new Tasker()
+			.usingThreads(3)
+			.consume(testInputs)
+			.intoFunction(value -> value)
+			.aggregateAndWait(Aggregator.sorted(Comparator.<Integer>naturalOrder()));
+		
+		List<Integer> expected = Lists.newArrayList(testInputs);
+		Collections.sort(expected);
+		assertEquals(expected, sorted);
+	}
+	
+	@Test
+	public void testTop() throws ExecutionException, InterruptedException {
+		List<Integer> top = new Tasker()
+			.usingThreads(3)
+			.consume(testInputs)
+			.intoFunction(value -> value)
+			.aggregateAndWait(Aggregator.top(Comparator.<Integer>reverseOrder(), 10));
+		
+		List<Integer> expected = Lists.newArrayList(testInputs);
+		Collections.sort(expected, Collections.reverseOrder());
+		assertEquals(expected.subList(0, 10), top);
+	}
+}
@@ -0,0 +1,163 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class TaskFeedTest {
+	@Test
+	public void testManyProducers() throws ExecutionException, InterruptedException, TimeoutException {
+		TaskFeed<Integer> feed = new Tasker()
+			.usingThreads(2)
+			.feed(16);
+		
+		ListenableFuture<? extends Collection<Integer>> future = feed
+			.intoFunction(value -> value * 2)
+			.intoFunction(value -> value + 1)
+			.execute();
+		
+		List<Thread> producers = Lists.newArrayList();
+		for (int i = 0; i < 4; ++i) {
+			int offset = i * 2500;
+			Thread producer = new Thread(() -> {
+				try {
+					for (int value = offset; value < offset + 2500; ++value) {
+						feed.offer(value);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			producer.start();
+			producers.add(producer);
+		}
+		
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		feed.close();
+		
+		Collection<Integer> results = future.get(10, TimeUnit.SECONDS);
+		Set<Integer> expected = Sets.newHashSet();
+		for (int value = 0; value < 10000; ++value) {
+			expected.add(value * 2 + 1);
+		}
+		
+		assertEquals(10000, results.size());
+		assertEquals(expected, Sets.newHashSet(results));
+	}
+	
+	@Test
+	public void testMergedBranches() throws ExecutionException, InterruptedException, TimeoutException {
+		TaskFeed<Integer> feed = new Tasker()
+			.usingThreads(2)
+			.feed(4);
+		
+		OutputtingTask<Integer> source = feed.intoFunction(value -> value * 2);
+		OutputtingTask<Integer> left = source.intoFunction(value -> value);
+		OutputtingTask<Integer> right = source.intoFunction(value -> value + 1);
+		
+		ListenableFuture<? extends Collection<Integer>> future = left
+			.mergeWith(right)
+			.execute();
+		
+		// Far more items than the queues between the stages hold, so both branches must be read as they arrive
+		for (int i = 0; i < 5000; ++i) {
+			assertTrue("The feed stopped taking items", feed.offer(i, 10, TimeUnit.SECONDS));
+		}
+		feed.close();
+		
+		Collection<Integer> results = future.get(10, TimeUnit.SECONDS);
+		Set<Integer> expected = Sets.newHashSet();
+		for (int value = 0; value < 10000; ++value) {
+			expected.add(value);
+		}
+		
+		assertEquals(10000, results.size());
+		assertEquals(expected, Sets.newHashSet(results));
+	}
+	
+	@Test
+	public void testResultsStreamedBeforeClose() throws ExecutionException, InterruptedException, TimeoutException {
+		CountDownLatch handled = new CountDownLatch(10);
+		
+		TaskFeed<Integer> feed = new Tasker()
+			.usingThreads(2)
+			.feed();
+		
+		ListenableFuture<Void> future = feed
+			.intoFunction(value -> value + 1)
+			.intoConsumer(value -> handled.countDown())
+			.execute();
+		
+		for (int i = 0; i < 10; ++i) {
+			feed.offer(i);
+		}
+		
+		// The last stage sees every item while the feed is still open
+		assertTrue(handled.await(10, TimeUnit.SECONDS));
+		assertFalse(future.isDone());
+		
+		feed.close();
+		future.get(10, TimeUnit.SECONDS);
+	}
+	
+	@Test
+	public void testTryOfferWhenFull() {
+		TaskFeed<Integer> feed = new Tasker()
+			.usingThreads(1)
+			.feed(2);
+		
+		// Nothing takes from the feed until it is executed
+		assertTrue(feed.tryOffer(1));
+		assertTrue(feed.tryOffer(2));
+		assertFalse(feed.tryOffer(3));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testOfferAfterClose() throws InterruptedException {
+		TaskFeed<Integer> feed = new Tasker()
+			.usingThreads(1)
+			.feed();
+		
+		feed.close();
+		feed.offer(1);
+	}
+	
+	@Test
+	public void testFailureClosesFeed() throws InterruptedException, TimeoutException {
+		TaskFeed<Integer> feed = new Tasker()
+			.usingThreads(2)
+			.feed();
+		
+		ListenableFuture<Void> future = feed
+			.intoFunction(value -> value)
+			.intoConsumer(value -> {
+				throw new IllegalArgumentException();
+			})
+			.execute();
+		
+		feed.offer(1);
+		
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("Expected the task to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		
+		assertTrue(feed.isClosed());
+	}
+}
@@ -0,0 +1,152 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class TaskSchedulerTest {
+	private TaskScheduler scheduler;
+	
+	@Before
+	public void setupScheduler() {
+		// A single thread so that the scheduling order is visible
+		scheduler = new TaskScheduler(1, 2, Executors.defaultThreadFactory());
+	}
+	
+	@After
+	public void shutdownScheduler() {
+		scheduler.shutdown();
+	}
+	
+	private static List<Integer> range(int count) {
+		return ContiguousSet.create(Range.closedOpen(0, count), DiscreteDomain.integers()).asList();
+	}
+	
+	@Test
+	public void testSharedScheduler() throws ExecutionException, InterruptedException, TimeoutException {
+		ListenableFuture<? extends Collection<Integer>> first = new Tasker()
+			.usingThreads(4)
+			.withScheduler(scheduler)
+			.consume(range(100))
+			.intoFunction(value -> value + 1)
+			.intoFunction(value -> value * 2)
+			.execute();
+		
+		ListenableFuture<? extends Collection<Integer>> second = new Tasker()
+			.usingThreads(4)
+			.withScheduler(scheduler)
+			.consume(range(100))
+			.intoFunction(value -> value)
+			.execute();
+		
+		assertEquals(100, first.get(10, TimeUnit.SECONDS).size());
+		assertEquals(Sets.newHashSet(range(100)), Sets.newHashSet(second.get(10, TimeUnit.SECONDS)));
+	}
+	
+	@Test
+	public void testInteractiveRunsAheadOfBatch() throws ExecutionException, InterruptedException, TimeoutException {
+		ListenableFuture<Void> batch = new Tasker()
+			.usingThreads(2)
+			.withScheduler(scheduler, Priority.Batch, 1)
+			.consume(range(200))
+			.intoConsumer(value -> Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS))
+			.execute();
+		
+		ListenableFuture<Void> interactive = new Tasker()
+			.usingThreads(2)
+			.withScheduler(scheduler, Priority.Interactive, 1)
+			.consume(range(10))
+			.intoConsumer(value -> Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS))
+			.execute();
+		
+		interactive.get(10, TimeUnit.SECONDS);
+		assertFalse(batch.isDone());
+		
+		batch.get(10, TimeUnit.SECONDS);
+	}
+	
+	@Test
+	public void testExecuteAfterShutdown() throws InterruptedException, TimeoutException {
+		ItemTasker<Integer> task = new Tasker()
+			.usingThreads(2)
+			.withScheduler(scheduler)
+			.consume(range(10));
+		
+		scheduler.shutdown();
+		
+		// The threads may already have stopped, so the task must fail rather than wait forever
+		try {
+			task.intoFunction(value -> value).execute().get(10, TimeUnit.SECONDS);
+			fail("Expected the task to be rejected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+	
+	@Test
+	public void testWeightedShare() {
+		AtomicBoolean stop = new AtomicBoolean();
+		Chunks light = new Chunks(scheduler.createJob(Priority.Batch, 1), stop);
+		Chunks heavy = new Chunks(scheduler.createJob(Priority.Batch, 3), stop);
+		
+		light.start();
+		heavy.start();
+		Uninterruptibles.sleepUninterruptibly(500, TimeUnit.MILLISECONDS);
+		
+		int lightCount = light.count.get();
+		int heavyCount = heavy.count.get();
+		stop.set(true);
+		
+		double share = (double)heavyCount / lightCount;
+		assertTrue("Expected a share of about 3 but was " + share, share > 2 && share < 4);
+	}
+	
+	/**
+	 * Keeps a job busy with equal sized chunks until stopped
+	 */
+	private static class Chunks implements Runnable {
+		private final Executor job;
+		private final AtomicBoolean stop;
+		private final AtomicInteger count;
+		
+		public Chunks(Executor job, AtomicBoolean stop) {
+			this.job = job;
+			this.stop = stop;
+			count = new AtomicInteger();
+		}
+		
+		public void start() {
+			job.execute(this);
+		}
+		
+		@Override
+		public void run() {
+			Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS);
+			count.incrementAndGet();
+			
+			if (!stop.get()) {
+				job.execute(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class TaskTest {
+	private ExecutorService executorService;
+	
+	@Before
+	public void setupExecutors() {
+		// Prepare an executor service with exactly as many threads as the tasks use
+		executorService = Executors.newFixedThreadPool(2);
+	}
+	
+	@After
+	public void shutdownExecutors() {
+		executorService.shutdownNow();
+	}
+	
+	@Test
+	public void testFixedPoolOfThreadCount() throws ExecutionException, InterruptedException, TimeoutException {
+		List<Integer> testInputs = Arrays.asList(1, 2, 3, 4);
+		
+		// No thread should be held waiting on a stage, otherwise this can never finish
+		Collection<String> results = new Tasker()
+			.usingThreads(2)
+			.withService(executorService)
+			.consume(testInputs)
+			.intoFunction(value -> value * 2)
+			.intoFunction(value -> "v" + value)
+			.execute()
+			.get(10, TimeUnit.SECONDS);
+		
+		assertEquals(Sets.newHashSet("v2", "v4", "v6", "v8"), Sets.newHashSet(results));
+	}
+	
+	@Test
+	public void testFailurePassesCause() throws InterruptedException {
+		List<Integer> testInputs = Arrays.asList(1, 2, 3, 4);
+		
+		try {
+			new Tasker()
+				.usingThreads(2)
+				.withService(executorService)
+				.consume(testInputs)
+				.intoFunction(value -> value)
+				.intoConsumer(value -> {
+					throw new IllegalArgumentException("bad " + value);
+				})
+				.executeAndWait();
+			fail("Expected the task to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+	
+	@Test
+	public void testFanOut() throws ExecutionException, InterruptedException, TimeoutException {
+		AtomicInteger parsed = new AtomicInteger();
+		
+		OutputtingTask<Integer> source = new Tasker()
+			.usingThreads(2)
+			.withService(executorService)
+			.consume(Arrays.asList(1, 2, 3, 4))
+			.intoFunction(value -> {
+				parsed.incrementAndGet();
+				return value * 10;
+			});
+		
+		OutputtingTask<String> strings = source.intoFunction(value -> "v" + value);
+		OutputtingTask<Integer> halves = source.intoFunction(value -> value / 2);
+		
+		// The task only starts once both branches are executed
+		ListenableFuture<? extends Collection<String>> first = strings.execute();
+		assertFalse(first.isDone());
+		ListenableFuture<? extends Collection<Integer>> second = halves.execute();
+		
+		assertEquals(Sets.newHashSet("v10", "v20", "v30", "v40"), Sets.newHashSet(first.get(10, TimeUnit.SECONDS)));
+		assertEquals(Sets.newHashSet(5, 10, 15, 20), Sets.newHashSet(second.get(10, TimeUnit.SECONDS)));
+		
+		// The source is only processed once for both branches
+		assertEquals(4, parsed.get());
+	}
+	
+	@Test
+	public void testWaitOnOneBranch() throws ExecutionException, InterruptedException {
+		OutputtingTask<Integer> source = new Tasker()
+			.usingThreads(2)
+			.withService(executorService)
+			.consume(Arrays.asList(1, 2, 3))
+			.intoFunction(value -> value);
+		
+		OutputtingTask<Integer> first = source.intoFunction(value -> value + 1);
+		OutputtingTask<Integer> second = source.intoFunction(value -> value - 1);
+		
+		// Waiting on the first branch would block forever as the second has not been executed
+		try {
+			first.executeAndWait();
+			fail("Expected waiting on the first branch to be refused");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		
+		ListenableFuture<? extends Collection<Integer>> firstFuture = first.execute();
+		assertEquals(Sets.newHashSet(0, 1, 2), Sets.newHashSet(second.executeAndWait()));
+		assertEquals(Sets.newHashSet(2, 3, 4), Sets.newHashSet(firstFuture.get()));
+	}
+	
+	@Test
+	public void testMergeBranches() throws ExecutionException, InterruptedException, TimeoutException {
+		OutputtingTask<Integer> source = new Tasker()
+			.usingThreads(2)
+			.withService(executorService)
+			.consume(Arrays.asList(1, 2, 3))
+			.intoFunction(value -> value);
+		
+		Collection<Integer> results = source.intoFunction(value -> value)
+			.mergeWith(source.intoFunction(value -> -value))
+			.intoFunction(value -> value * 2)
+			.execute()
+			.get(10, TimeUnit.SECONDS);
+		
+		assertEquals(Sets.newHashSet(2, 4, 6, -2, -4, -6), Sets.newHashSet(results));
+	}
+	
+	@Test
+	public void testMergeTasks() throws ExecutionException, InterruptedException, TimeoutException {
+		OutputtingTask<String> letters = new Tasker()
+			.usingThreads(2)
+			.consume(Arrays.asList("a", "b"))
+			.intoFunction(value -> value);
+		
+		OutputtingTask<String> numbers = new Tasker()
+			.usingThreads(2)
+			.consume(Arrays.asList(1, 2))
+			.intoFunction(value -> Integer.toString(value));
+		
+		Collection<String> results = letters.mergeWith(numbers)
+			.executeAndWait();
+		
+		assertEquals(Sets.newHashSet("a", "b", "1", "2"), Sets.newHashSet(results));
+	}
+	
+	@Test
+	public void testBranchFailureFailsTheOthers() throws InterruptedException, TimeoutException {
+		OutputtingTask<Integer> source = new Tasker()
+			.usingThreads(2)
+			.withService(executorService)
+			.consume(Arrays.asList(1, 2, 3, 4))
+			.intoFunction(value -> {
+				throw new IllegalArgumentException("bad " + value);
+			});
+		
+		OutputtingTask<Integer> first = source.intoFunction(value -> value);
+		OutputtingTask<Integer> second = source.intoFunction(value -> value);
+		
+		ListenableFuture<? extends Collection<Integer>> firstFuture = first.execute();
+		ListenableFuture<? extends Collection<Integer>> secondFuture = second.execute();
+		
+		for (ListenableFuture<?> future : Arrays.asList(firstFuture, secondFuture)) {
+			try {
+				future.get(10, TimeUnit.SECONDS);
+				fail("Expected the branch to fail");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+		}
+	}
+	
+	@Test
+	public void testLowFootprint() throws ExecutionException, InterruptedException, TimeoutException {
+		// Enough results to fill several segments on each thread
+		List<Integer> inputs = Lists.newArrayList();
+		for (int i = 0; i < 10000; ++i) {
+			inputs.add(i);
+		}
+		
+		OutputtingTask<Integer> source = new Tasker()
+			.usingThreads(2)
+			.withService(executorService)
+			.withLowFootprint()
+			.consume(inputs)
+			.intoFunction(value -> value * 2);
+		
+		OutputtingTask<Integer> firstBranch = source.intoFunction(value -> value + 1);
+		OutputtingTask<Integer> secondBranch = source.intoFunction(value -> value / 2);
+		
+		ListenableFuture<? extends Collection<Integer>> firstFuture = firstBranch.execute();
+		ListenableFuture<? extends Collection<Integer>> secondFuture = secondBranch.execute();
+		
+		Set<Integer> expected = Sets.newHashSet();
+		for (int i = 0; i < 10000; ++i) {
+			expected.add(i * 2 + 1);
+		}
+		
+		Collection<Integer> first = firstFuture.get(10, TimeUnit.SECONDS);
+		assertEquals(10000, first.size());
+		assertEquals(expected, Sets.newHashSet(first));
+		
+		// Both branches read every result even though the segments are shared
+		Collection<Integer> second = secondFuture.get(10, TimeUnit.SECONDS);
+		assertEquals(10000, second.size());
+		assertEquals(Sets.newHashSet(inputs), Sets.newHashSet(second));
+	}
+}
@@ -0,0 +1,99 @@
+package tasker;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class TracerTest {
+	private static final Pattern SPAN = Pattern.compile("\"cat\":\"([a-z]+)\",\"ph\":\"X\"");
+	
+	private static List<Integer> createInputs(int count) {
+		List<Integer> inputs = Lists.newArrayList();
+		for (int i = 0; i < count; ++i) {
+			inputs.add(i);
+		}
+		return inputs;
+	}
+	
+	private static int countSpans(String trace, String category) {
+		Matcher matcher = SPAN.matcher(trace);
+		int count = 0;
+		while (matcher.find()) {
+			if (matcher.group(1).equals(category)) {
+				++count;
+			}
+		}
+		return count;
+	}
+	
+	@Test
+	public void testSpansRecorded() throws ExecutionException, InterruptedException, IOException {
+		Tracer tracer = new Tracer(1024, 1);
+		
+		new Tasker()
+			.usingThreads(2)
+			.withTracer(tracer)
+			.consume(createInputs(100))
+			.intoFunction(value -> value * 2)
+			.intoFunction(value -> value + 1)
+			.executeAndWait();
+		
+		StringBuilder trace = new StringBuilder();
+		tracer.writeTo(trace);
+		String output = trace.toString();
+		
+		assertTrue(output.startsWith("{\"traceEvents\":["));
+		assertTrue(output.contains("\"name\":\"Stage 1 (OutputtingStage)\""));
+		assertTrue(output.contains("\"name\":\"Stage 2 (OutputtingStage)\""));
+		assertEquals(2, countSpans(output, "stage"));
+		assertEquals(1, countSpans(output, "collector"));
+		// Every item of both stages is sampled
+		assertEquals(200, countSpans(output, "item"));
+		// Including the final wait of each executor that finds no more input
+		assertEquals(204, countSpans(output, "supplier"));
+	}
+	
+	@Test
+	public void testItemSampling() throws ExecutionException, InterruptedException, IOException {
+		Tracer tracer = new Tracer(1024, 0);
+		
+		new Tasker()
+			.usingThreads(2)
+			.withTracer(tracer)
+			.consume(createInputs(100))
+			.intoConsumer(value -> {})
+			.executeAndWait();
+		
+		StringBuilder trace = new StringBuilder();
+		tracer.writeTo(trace);
+		
+		assertEquals(0, countSpans(trace.toString(), "item"));
+		assertEquals(1, countSpans(trace.toString(), "stage"));
+		assertTrue(countSpans(trace.toString(), "executor") >= 2);
+	}
+	
+	@Test
+	public void testBufferKeepsNewest() throws IOException {
+		Tracer tracer = new Tracer(4, 1);
+		for (int i = 0; i < 10; ++i) {
+			tracer.end("test", "span" + i, tracer.begin());
+		}
+		
+		StringBuilder trace = new StringBuilder();
+		tracer.writeTo(trace);
+		String output = trace.toString();
+		
+		assertEquals(4, countSpans(output, "test"));
+		assertFalse(output.contains("\"span5\""));
+		assertTrue(output.contains("\"span6\""));
+		assertTrue(output.contains("\"span9\""));
+	}
+}
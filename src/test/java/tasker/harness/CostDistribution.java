@@ -0,0 +1,102 @@
+package tasker.harness;
+
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Provides the cost of each synthetic item.
+ * @author schmoller
+ */
+public interface CostDistribution {
+	/**
+	 * Picks the cost of the next item
+	 * @param random The source of randomness. Using a seeded random makes the costs reproducible
+	 * @return The cost in microseconds
+	 */
+	long nextCost(Random random);
+	
+	/**
+	 * Gets a distribution where every item has the same cost
+	 * @param micros The cost of every item in microseconds
+	 */
+	static CostDistribution fixed(long micros) {
+		Preconditions.checkArgument(micros >= 0, "Cost cannot be negative");
+		return random -> micros;
+	}
+	
+	/**
+	 * Gets a distribution where the cost of an item is its Zipf rank multiplied by a unit cost.
+	 * Most items are cheap and a few are very expensive.
+	 * @param ranks The number of ranks
+	 * @param exponent The skew of the distribution. Higher values make expensive items rarer
+	 * @param unitMicros The cost of a rank 1 item in microseconds
+	 */
+	static CostDistribution zipf(int ranks, double exponent, long unitMicros) {
+		Preconditions.checkArgument(ranks > 0, "Ranks cannot be less than 1");
+		Preconditions.checkArgument(exponent > 0, "Exponent must be greater than 0");
+		Preconditions.checkArgument(unitMicros >= 0, "Cost cannot be negative");
+		
+		// Cumulative probability of each rank
+		double[] cumulative = new double[ranks];
+		double total = 0;
+		for (int rank = 1; rank <= ranks; ++rank) {
+			total += 1 / Math.pow(rank, exponent);
+			cumulative[rank - 1] = total;
+		}
+		
+		double sum = total;
+		return random -> {
+			double target = random.nextDouble() * sum;
+			int low = 0;
+			int high = ranks - 1;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (cumulative[middle] < target) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			
+			return (low + 1) * unitMicros;
+		};
+	}
+	
+	/**
+	 * Gets a distribution with two kinds of items, a common fast one and a rare slow one
+	 * @param fastMicros The cost of a fast item in microseconds
+	 * @param slowMicros The cost of a slow item in microseconds
+	 * @param slowFraction The fraction of items that are slow, between 0 and 1
+	 */
+	static CostDistribution bimodal(long fastMicros, long slowMicros, double slowFraction) {
+		Preconditions.checkArgument(fastMicros >= 0 && slowMicros >= 0, "Cost cannot be negative");
+		Preconditions.checkArgument(slowFraction >= 0 && slowFraction <= 1, "Slow fraction must be between 0 and 1");
+		
+		return random -> (random.nextDouble() < slowFraction ? slowMicros : fastMicros);
+	}
+	
+	/**
+	 * Parses a distribution from the command line.
+	 * The formats are {@code fixed:<micros>}, {@code zipf:<ranks>:<exponent>:<unitMicros>}
+	 * and {@code bimodal:<fastMicros>:<slowMicros>:<slowFraction>}
+	 * @param spec The specification to parse
+	 * @return The distribution
+	 */
+	static CostDistribution parse(String spec) {
+		String[] parts = spec.split(":");
+		switch (parts[0]) {
+		case "fixed":
+			Preconditions.checkArgument(parts.length == 2, "Expected fixed:<micros>");
+			return fixed(Long.parseLong(parts[1]));
+		case "zipf":
+			Preconditions.checkArgument(parts.length == 4, "Expected zipf:<ranks>:<exponent>:<unitMicros>");
+			return zipf(Integer.parseInt(parts[1]), Double.parseDouble(parts[2]), Long.parseLong(parts[3]));
+		case "bimodal":
+			Preconditions.checkArgument(parts.length == 4, "Expected bimodal:<fastMicros>:<slowMicros>:<slowFraction>");
+			return bimodal(Long.parseLong(parts[1]), Long.parseLong(parts[2]), Double.parseDouble(parts[3]));
+		default:
+			throw new IllegalArgumentException("Unknown distribution " + parts[0]);
+		}
+	}
+}
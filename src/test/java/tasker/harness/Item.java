@@ -0,0 +1,27 @@
+package tasker.harness;
+
+/**
+ * A synthetic item with a precomputed cost for each stage
+ * @author schmoller
+ */
+class Item {
+	private final int id;
+	private final long[] costs;
+	
+	public Item(int id, long[] costs) {
+		this.id = id;
+		this.costs = costs;
+	}
+	
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * @param stage The index of the stage
+	 * @return The cost of this item in that stage in microseconds
+	 */
+	public long getCost(int stage) {
+		return costs[stage];
+	}
+}
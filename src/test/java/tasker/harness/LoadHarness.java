@@ -0,0 +1,244 @@
+package tasker.harness;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import tasker.InstanceOptions;
+import tasker.ItemTasker;
+import tasker.Tasker;
+
+/**
+ * Runs a multi-stage task over synthetic items with skewed costs and reports
+ * how evenly the work was spread between the workers of each stage.
+ * <p>
+ * Every combination of thread count and {@link InstanceOptions} is run with the
+ * same items. For each stage the report shows the item latency percentiles, the
+ * utilization of each worker, and the straggler time: how long the stage was held
+ * open by its slowest worker after the first worker had run out of input.
+ * <p>
+ * Run with {@code mvn -P harness test-compile exec:java -Dexec.args="--threads 1,2,4"}.
+ * Options are:
+ * <ul>
+ * <li>{@code --items <count>} The number of items. Default 20000</li>
+ * <li>{@code --distribution <spec>} The cost of each item, see {@link CostDistribution#parse(String)}. Default zipf:100:1.2:5</li>
+ * <li>{@code --work <kind>} Spin, Allocate or Sleep. Default Spin</li>
+ * <li>{@code --stages <count>} The number of stages. Default 3</li>
+ * <li>{@code --stage-weights <list>} A cost multiplier for each stage, to make stages unbalanced. Default 1 for every stage</li>
+ * <li>{@code --threads <list>} The thread counts to run with. Default 1,2,4,8</li>
+ * <li>{@code --options <list>} The instance options to run with. Default PerThread,Single,PerTask</li>
+ * <li>{@code --seed <seed>} The seed for the item costs. Default 42</li>
+ * <li>{@code --warmup <count>} The number of unreported runs before each configuration. Default 1</li>
+ * <li>{@code --repeat <count>} The number of reported runs of each configuration. Default 1</li>
+ * </ul>
+ * @author schmoller
+ */
+public class LoadHarness {
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+	
+	private final List<Item> items;
+	private final WorkKind work;
+	private final int stageCount;
+	
+	public LoadHarness(List<Item> items, WorkKind work, int stageCount) {
+		this.items = items;
+		this.work = work;
+		this.stageCount = stageCount;
+	}
+	
+	/**
+	 * Generates the items. The same seed always gives the same costs
+	 */
+	static List<Item> createItems(int count, CostDistribution distribution, long[] stageWeights, long seed) {
+		Random random = new Random(seed);
+		List<Item> items = Lists.newArrayListWithCapacity(count);
+		for (int i = 0; i < count; ++i) {
+			long[] costs = new long[stageWeights.length];
+			for (int stage = 0; stage < costs.length; ++stage) {
+				costs[stage] = distribution.nextCost(random) * stageWeights[stage];
+			}
+			
+			items.add(new Item(i, costs));
+		}
+		
+		return items;
+	}
+	
+	/**
+	 * Runs the task once
+	 * @return The recorders of each stage
+	 */
+	public List<StageRecorder> run(int threads, InstanceOptions options) throws InterruptedException, ExecutionException {
+		List<StageRecorder> recorders = Lists.newArrayList();
+		for (int stage = 0; stage < stageCount; ++stage) {
+			recorders.add(new StageRecorder(stage, work));
+		}
+		
+		boolean perThread = (options == InstanceOptions.PerThread);
+		
+		ItemTasker<Item> task = new Tasker()
+			.usingThreads(threads)
+			.consume(items);
+		
+		for (int stage = 0; stage < stageCount - 1; ++stage) {
+			StageRecorder recorder = recorders.get(stage);
+			task = task.intoFunction(() -> recorder.createWork(perThread), options);
+		}
+		
+		StageRecorder last = recorders.get(stageCount - 1);
+		task.intoConsumer(() -> last.createWork(perThread), options).executeAndWait();
+		
+		return recorders;
+	}
+	
+	private void report(int threads, InstanceOptions options, long wallNanos, List<StageRecorder> recorders) {
+		System.out.printf("threads=%d options=%s wall=%.1fms throughput=%.0f items/s%n",
+			threads, options, toMillis(wallNanos), items.size() / (wallNanos / 1e9));
+		
+		System.out.printf("  %-5s %10s %14s %9s", "stage", "wall ms", "straggler ms", "imbalance");
+		for (double percentile : PERCENTILES) {
+			System.out.printf(" %10s", "p" + formatPercentile(percentile) + " us");
+		}
+		System.out.printf(" %10s%n", "max us");
+		
+		for (int stage = 0; stage < recorders.size(); ++stage) {
+			List<WorkerRecord> workers = recorders.get(stage).getWorkers();
+			
+			long firstStart = Long.MAX_VALUE;
+			long firstEnd = Long.MAX_VALUE;
+			long lastEnd = Long.MIN_VALUE;
+			long maxBusy = 0;
+			long totalBusy = 0;
+			int latencyCount = 0;
+			for (WorkerRecord worker : workers) {
+				firstStart = Math.min(firstStart, worker.getStart());
+				firstEnd = Math.min(firstEnd, worker.getEnd());
+				lastEnd = Math.max(lastEnd, worker.getEnd());
+				maxBusy = Math.max(maxBusy, worker.getBusy());
+				totalBusy += worker.getBusy();
+				latencyCount += worker.getCount();
+			}
+			
+			long[] latencies = new long[latencyCount];
+			int offset = 0;
+			for (WorkerRecord worker : workers) {
+				long[] workerLatencies = worker.getLatencies();
+				System.arraycopy(workerLatencies, 0, latencies, offset, workerLatencies.length);
+				offset += workerLatencies.length;
+			}
+			Arrays.sort(latencies);
+			
+			long stageWall = lastEnd - firstStart;
+			double meanBusy = (double)totalBusy / workers.size();
+			
+			System.out.printf("  %-5d %10.1f %14.1f %9.2f", stage, toMillis(stageWall), toMillis(lastEnd - firstEnd), (meanBusy == 0 ? 1 : maxBusy / meanBusy));
+			for (double percentile : PERCENTILES) {
+				System.out.printf(" %10.1f", toMicros(percentile(latencies, percentile)));
+			}
+			System.out.printf(" %10.1f%n", toMicros(latencies.length == 0 ? 0 : latencies[latencies.length - 1]));
+			
+			StringBuilder utilization = new StringBuilder();
+			for (WorkerRecord worker : workers) {
+				utilization.append(String.format(" %d@%.0f%%", worker.getCount(), (stageWall == 0 ? 0 : 100.0 * worker.getBusy() / stageWall)));
+			}
+			System.out.printf("        workers (items@utilization):%s%n", utilization);
+		}
+		
+		System.out.println();
+	}
+	
+	private static long percentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		
+		int index = (int)Math.ceil(percentile / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+	
+	private static String formatPercentile(double percentile) {
+		return (percentile == Math.floor(percentile) ? String.valueOf((long)percentile) : String.valueOf(percentile));
+	}
+	
+	private static double toMillis(long nanos) {
+		return nanos / (double)TimeUnit.MILLISECONDS.toNanos(1);
+	}
+	
+	private static double toMicros(long nanos) {
+		return nanos / (double)TimeUnit.MICROSECONDS.toNanos(1);
+	}
+	
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		Map<String, String> arguments = parseArguments(args);
+		
+		int itemCount = Integer.parseInt(arguments.getOrDefault("items", "20000"));
+		CostDistribution distribution = CostDistribution.parse(arguments.getOrDefault("distribution", "zipf:100:1.2:5"));
+		WorkKind work = WorkKind.valueOf(arguments.getOrDefault("work", "Spin"));
+		int stageCount = Integer.parseInt(arguments.getOrDefault("stages", "3"));
+		long seed = Long.parseLong(arguments.getOrDefault("seed", "42"));
+		int warmup = Integer.parseInt(arguments.getOrDefault("warmup", "1"));
+		int repeat = Integer.parseInt(arguments.getOrDefault("repeat", "1"));
+		
+		long[] stageWeights = new long[stageCount];
+		Arrays.fill(stageWeights, 1);
+		if (arguments.containsKey("stage-weights")) {
+			List<String> weights = Splitter.on(',').trimResults().splitToList(arguments.get("stage-weights"));
+			if (weights.size() != stageCount) {
+				throw new IllegalArgumentException("Expected a weight for each of the " + stageCount + " stages");
+			}
+			for (int i = 0; i < stageCount; ++i) {
+				stageWeights[i] = Long.parseLong(weights.get(i));
+			}
+		}
+		
+		List<Integer> threadCounts = Lists.newArrayList();
+		for (String count : Splitter.on(',').trimResults().split(arguments.getOrDefault("threads", "1,2,4,8"))) {
+			threadCounts.add(Integer.parseInt(count));
+		}
+		
+		List<InstanceOptions> optionsList = Lists.newArrayList();
+		for (String options : Splitter.on(',').trimResults().split(arguments.getOrDefault("options", "PerThread,Single,PerTask"))) {
+			optionsList.add(InstanceOptions.valueOf(options));
+		}
+		
+		System.out.printf("items=%d distribution=%s work=%s stages=%d weights=%s seed=%d%n%n",
+			itemCount, arguments.getOrDefault("distribution", "zipf:100:1.2:5"), work, stageCount, Arrays.toString(stageWeights), seed);
+		
+		LoadHarness harness = new LoadHarness(createItems(itemCount, distribution, stageWeights, seed), work, stageCount);
+		for (int threads : threadCounts) {
+			for (InstanceOptions options : optionsList) {
+				for (int i = 0; i < warmup; ++i) {
+					harness.run(threads, options);
+				}
+				
+				for (int i = 0; i < repeat; ++i) {
+					long start = System.nanoTime();
+					List<StageRecorder> recorders = harness.run(threads, options);
+					long wall = System.nanoTime() - start;
+					
+					harness.report(threads, options, wall, recorders);
+				}
+			}
+		}
+	}
+	
+	private static Map<String, String> parseArguments(String[] args) {
+		Map<String, String> arguments = Maps.newHashMap();
+		for (int i = 0; i < args.length; i += 2) {
+			if (!args[i].startsWith("--") || i + 1 >= args.length) {
+				throw new IllegalArgumentException("Expected --<option> <value> but got " + args[i]);
+			}
+			
+			arguments.put(args[i].substring(2), args[i + 1]);
+		}
+		
+		return arguments;
+	}
+}
@@ -0,0 +1,83 @@
+package tasker.harness;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Records the timings of every worker in a single stage.
+ * @author schmoller
+ */
+class StageRecorder {
+	private final int stage;
+	private final WorkKind work;
+	
+	private final List<WorkerRecord> workers;
+	private final ThreadLocal<WorkerRecord> threadRecords;
+	
+	public StageRecorder(int stage, WorkKind work) {
+		this.stage = stage;
+		this.work = work;
+		
+		workers = Collections.synchronizedList(Lists.newArrayList());
+		threadRecords = ThreadLocal.withInitial(this::newRecord);
+	}
+	
+	private WorkerRecord newRecord() {
+		WorkerRecord record = new WorkerRecord();
+		workers.add(record);
+		return record;
+	}
+	
+	/**
+	 * Creates the work for this stage
+	 * @param perThread True if the instance is used by a single worker for its whole life.
+	 *                  Such instances record when the worker stops as they are closed then
+	 */
+	public Work createWork(boolean perThread) {
+		return new Work(perThread ? newRecord() : null);
+	}
+	
+	public List<WorkerRecord> getWorkers() {
+		return workers;
+	}
+	
+	/**
+	 * Performs the work of an item for this stage and records how long it took
+	 * @author schmoller
+	 */
+	class Work implements Function<Item, Item>, Consumer<Item>, AutoCloseable {
+		private final WorkerRecord ownRecord;
+		
+		private Work(WorkerRecord ownRecord) {
+			this.ownRecord = ownRecord;
+		}
+		
+		@Override
+		public Item apply(Item item) {
+			// Shared instances cannot tell which worker is using them, so use one record per thread
+			WorkerRecord record = (ownRecord != null ? ownRecord : threadRecords.get());
+			
+			long start = System.nanoTime();
+			work.perform(item.getCost(stage));
+			record.record(start, System.nanoTime());
+			
+			return item;
+		}
+		
+		@Override
+		public void accept(Item item) {
+			apply(item);
+		}
+		
+		@Override
+		public void close() {
+			if (ownRecord != null) {
+				ownRecord.finish();
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package tasker.harness;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The kind of work done by a synthetic item
+ * @author schmoller
+ */
+public enum WorkKind {
+	/**
+	 * Keeps the CPU busy for the cost of the item
+	 */
+	Spin {
+		@Override
+		void perform(long micros) {
+			long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+			long value = 0;
+			while (System.nanoTime() < end) {
+				value = value * 31 + 17;
+			}
+			sink = value;
+		}
+	},
+	/**
+	 * Allocates short lived garbage for the cost of the item
+	 */
+	Allocate {
+		@Override
+		void perform(long micros) {
+			long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+			long value = 0;
+			while (System.nanoTime() < end) {
+				byte[] garbage = new byte[1024];
+				garbage[(int)(value & 1023)] = 1;
+				value += garbage.length;
+			}
+			sink = value;
+		}
+	},
+	/**
+	 * Parks the thread for the cost of the item, like waiting on I/O
+	 */
+	Sleep {
+		@Override
+		void perform(long micros) {
+			long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+			long remaining;
+			while ((remaining = end - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(remaining);
+			}
+		}
+	};
+	
+	// Stops the work from being optimized away
+	static volatile long sink;
+	
+	/**
+	 * Performs the work for an item
+	 * @param micros The cost of the item in microseconds
+	 */
+	abstract void perform(long micros);
+}
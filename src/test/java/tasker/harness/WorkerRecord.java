@@ -0,0 +1,67 @@
+package tasker.harness;
+
+import java.util.Arrays;
+
+/**
+ * The timings of a single worker of a stage. Only used by the worker's own thread
+ * until the stage is complete.
+ * @author schmoller
+ */
+class WorkerRecord {
+	private long start;
+	private long end;
+	private long busy;
+	
+	private long[] latencies;
+	private int count;
+	
+	public WorkerRecord() {
+		start = System.nanoTime();
+		latencies = new long[1024];
+	}
+	
+	/**
+	 * Records that an item was processed
+	 * @param itemStart The time processing started in nanoseconds
+	 * @param itemEnd The time processing ended in nanoseconds
+	 */
+	public void record(long itemStart, long itemEnd) {
+		if (count == latencies.length) {
+			latencies = Arrays.copyOf(latencies, count * 2);
+		}
+		
+		latencies[count++] = itemEnd - itemStart;
+		busy += itemEnd - itemStart;
+		end = itemEnd;
+	}
+	
+	/**
+	 * Records that the worker has stopped
+	 */
+	public void finish() {
+		end = System.nanoTime();
+	}
+	
+	public long getStart() {
+		return start;
+	}
+	
+	/**
+	 * @return The time the worker stopped, or finished its last item if it is not known when it stopped
+	 */
+	public long getEnd() {
+		return Math.max(start, end);
+	}
+	
+	public long getBusy() {
+		return busy;
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	public long[] getLatencies() {
+		return Arrays.copyOf(latencies, count);
+	}
+}